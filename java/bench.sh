@@ -0,0 +1,16 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Runs the operation benchmarks against a scratch database loaded with
+# import.sh; the write operations add rows to it.  For the 10x and 100x
+# runs load the output of generate.sh instead of ../data:
+#   source ./generate.sh ../data /tmp/shop10x 10
+#   (recreate the tables with create.sql and migrate.sh)
+#   source ./import.sh benchDB 5432 user /tmp/shop10x
+# Example: source ./bench.sh benchDB 5432 user 5 10 AddCar InsertServiceRequest
+mkdir -p bench/bin
+javac -cp "lib/postgresql-42.1.4.jar" src/*.java bench/*.java -d bench/bin/ || exit 1
+java -cp lib/*:bench/bin/ ShopBench $DBNAME $PORT $USER "$@"
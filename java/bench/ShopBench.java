@@ -0,0 +1,329 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class benchmarks every MechanicShop menu operation against a live
+ * database.  Each operation runs through the same static method the menu
+ * calls, fed with a scripted form, for a warmup period and then a measured
+ * period, and the throughput, p50/p99 latency and bytes allocated per
+ * operation are printed.
+ *
+ * The write operations change the data, so run it against a scratch copy
+ * loaded with import.sh (see bench.sh).
+ *
+ */
+
+public class ShopBench{
+
+	/**
+	 * One benchmarked menu operation: its name and the form typed into it.
+	 */
+	private interface Operation{
+		String name();
+		//null when the fixture has nothing left for the form
+		String form(Fixture fixture) throws Exception;
+		void run(MechanicShop esql) throws Exception;
+		//called after each run, e.g. to feed the keys it created back into the fixture
+		void after(MechanicShop esql, Fixture fixture);
+	}
+
+	/**
+	 * Keys sampled from the database that the forms refer to.
+	 */
+	private static class Fixture{
+		int[] customers;
+		int[] mechanics;
+		String[] vins;
+		//open requests not closed by the benchmark yet, oldest first
+		ArrayDeque<Integer> openRequests = new ArrayDeque<Integer>();
+
+		int customer(){ return pick(this.customers); }
+		int mechanic(){ return pick(this.mechanics); }
+		String vin(){ return this.vins[ThreadLocalRandom.current().nextInt(this.vins.length)]; }
+
+		Integer openRequest(){
+			return this.openRequests.pollFirst();
+		}
+
+		private static int pick(int[] ids){
+			return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+		}
+	}
+
+	private static abstract class Op implements Operation{
+		private final String _name;
+		Op(String name){ this._name = name; }
+		public String name(){ return this._name; }
+		public void after(MechanicShop esql, Fixture fixture){}
+	}
+
+	/**
+	 * A report; after its form the session pages through the whole report.
+	 */
+	private static abstract class Report extends Op{
+		Report(String name){ super(name); }
+	}
+
+	private static final Operation[] OPERATIONS = {
+		new Op("AddCustomer"){
+			public String form(Fixture f){ return "Bench\nCustomer\n(555)555-0100\n1 Bench Street Riverside\n"; }
+			public void run(MechanicShop esql){ MechanicShop.AddCustomer(esql); }
+		},
+		new Op("AddMechanic"){
+			public String form(Fixture f){ return "Bench\nMechanic\n5\n"; }
+			public void run(MechanicShop esql){ MechanicShop.AddMechanic(esql); }
+		},
+		new Op("AddCar"){
+			public String form(Fixture f){ return f.customer() + "\nBench\nModel\n2010\n"; }
+			public void run(MechanicShop esql){ MechanicShop.AddCar(esql); }
+		},
+		new Op("InsertServiceRequest"){
+			private int _open;
+			public String form(Fixture f){ return f.customer() + "\n" + f.vin() + "\n2017-01-01\n50000\nBench complaint\n"; }
+			public void run(MechanicShop esql){
+				this._open = esql.state().scheduler.openCount();
+				MechanicShop.InsertServiceRequest(esql);
+			}
+			// the requests opened here are closed by the CloseServiceRequest benchmark
+			public void after(MechanicShop esql, Fixture f){
+				if (esql.state().scheduler.openCount() > this._open)
+					f.openRequests.addLast(esql.state().ids.current("service_request_rid_seq"));
+			}
+		},
+		new Op("CloseServiceRequest"){
+			public String form(Fixture f){
+				Integer rid = f.openRequest();
+				return rid == null ? null : rid + "\n" + f.mechanic() + "\n2017-01-02\nBench comment\n150\n";
+			}
+			public void run(MechanicShop esql) throws Exception { MechanicShop.CloseServiceRequest(esql); }
+		},
+		new Report("ListCustomersWithBillLessThan100"){
+			public String form(Fixture f){ return ""; }
+			public void run(MechanicShop esql){ MechanicShop.ListCustomersWithBillLessThan100(esql); }
+		},
+		new Report("ListCustomersWithMoreThan20Cars"){
+			public String form(Fixture f){ return ""; }
+			public void run(MechanicShop esql){ MechanicShop.ListCustomersWithMoreThan20Cars(esql); }
+		},
+		new Report("ListCarsBefore1995With50000Milles"){
+			public String form(Fixture f){ return ""; }
+			public void run(MechanicShop esql){ MechanicShop.ListCarsBefore1995With50000Milles(esql); }
+		},
+		new Report("ListKCarsWithTheMostServices"){
+			public String form(Fixture f){ return "10\n"; }
+			public void run(MechanicShop esql){ MechanicShop.ListKCarsWithTheMostServices(esql); }
+		},
+		new Report("ListCustomersInDescendingOrderOfTheirTotalBill"){
+			public String form(Fixture f){ return ""; }
+			public void run(MechanicShop esql){ MechanicShop.ListCustomersInDescendingOrderOfTheirTotalBill(esql); }
+		}
+	};
+
+	//discards everything the operations print
+	private static final PrintStream NULL_OUT = new PrintStream(new OutputStream(){
+		public void write(int b){}
+		public void write(byte[] b, int off, int len){}
+	});
+
+	private final ConnectionPool _pool;
+	private final ShopState _state;
+	private final Fixture _fixture = new Fixture();
+
+	public ShopBench(ConnectionPool pool) throws SQLException {
+		this._pool = pool;
+		ConnectionPool.Entry entry = pool.borrow();
+		try{
+			this._state = new ShopState(entry.connection);
+		}finally{
+			pool.release(entry);
+		}//end try
+
+		MechanicShop esql = session("");
+		try{
+			this._fixture.customers = ints(esql.executeQueryAndReturnResult("SELECT id FROM customer;"));
+			this._fixture.mechanics = ints(esql.executeQueryAndReturnResult("SELECT id FROM mechanic;"));
+			List<List<String>> vins = esql.executeQueryAndReturnResult("SELECT vin FROM car;");
+			this._fixture.vins = new String[vins.size()];
+			for (int i = 0; i < vins.size(); i++)
+				this._fixture.vins[i] = vins.get(i).get(0);
+			for (int rid : ints(esql.executeQueryAndReturnResult(
+					"SELECT rid FROM service_request WHERE NOT EXISTS (SELECT 1 FROM closed_request WHERE closed_request.rid = service_request.rid) ORDER BY rid;")))
+				this._fixture.openRequests.addLast(rid);
+		}finally{
+			esql.cleanup();
+		}//end try
+	}
+
+	private static int[] ints(List<List<String>> rows){
+		int[] values = new int[rows.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = Integer.parseInt(rows.get(i).get(0));
+		return values;
+	}
+
+	private MechanicShop session(String form){
+		return new MechanicShop(this._pool, this._state, new BufferedReader(new StringReader(form)), NULL_OUT);
+	}
+
+	/**
+	 * Method to create a session for a report that answers every page prompt
+	 * with next while there is a next page, then quits.
+	 */
+	private MechanicShop reportSession(String form){
+		final PageWatcher watcher = new PageWatcher();
+		final StringReader formReader = new StringReader(form);
+		Reader input = new Reader(){
+			private boolean _formDone = false;
+
+			// BufferedReader asks for more only once it has used up a line,
+			// which is after the prompt it answers was printed
+			public int read(char[] buffer, int off, int len) throws IOException {
+				if (!this._formDone){
+					int n = formReader.read(buffer, off, len);
+					if (n > 0) return n;
+					this._formDone = true;
+				}//end if
+				buffer[off] = watcher.more ? 'n' : 'q';
+				if (len == 1) return 1;
+				buffer[off + 1] = '\n';
+				return 2;
+			}
+
+			public void close(){}
+		};
+		return new MechanicShop(this._pool, this._state, new BufferedReader(input), new PrintStream(watcher));
+	}
+
+	/**
+	 * Discards the output of a report, remembering whether the last page
+	 * prompt printed offered a next page.
+	 */
+	private static class PageWatcher extends OutputStream{
+		private static final String NEXT = "[n]ext";
+		//characters of NEXT matched so far on the current line, and whether all were
+		private int _matched = 0;
+		private boolean _seen = false;
+		volatile boolean more = false;
+
+		public void write(int b){
+			if (b == '\n'){
+				this._matched = 0;
+				this._seen = false;
+			}else if (b == '$'){
+				// the end of a prompt
+				this.more = this._seen;
+			}else if (!this._seen){
+				this._matched = b == NEXT.charAt(this._matched) ? this._matched + 1 : (b == NEXT.charAt(0) ? 1 : 0);
+				this._seen = this._matched == NEXT.length();
+			}//end if
+		}
+
+		public void write(byte[] b, int off, int len){
+			for (int i = off; i < off + len; i++)
+				write(b[i]);
+		}
+	}
+
+	/**
+	 * Method to run one operation for the warmup and the measured period
+	 * and print its line of the results table.
+	 */
+	private void measure(Operation op, long warmupMillis, long measureMillis) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		long end = System.currentTimeMillis() + warmupMillis;
+		while (System.currentTimeMillis() < end){
+			if (!runOnce(op)){
+				System.out.println(String.format("%-48s skipped, the fixture ran out during the warmup", op.name()));
+				return;
+			}//end if
+		}//end while
+
+		long[] latencies = new long[1024];
+		int count = 0;
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		end = start + measureMillis * 1000000L;
+		long now = start;
+		while (now < end){
+			long before = now;
+			// stops early when the fixture runs out, e.g. of open requests
+			if (!runOnce(op)) break;
+			now = System.nanoTime();
+			if (count == latencies.length)
+				latencies = Arrays.copyOf(latencies, count * 2);
+			latencies[count++] = now - before;
+		}//end while
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		if (count == 0){
+			System.out.println(String.format("%-48s skipped, the fixture ran out", op.name()));
+			return;
+		}//end if
+
+		Arrays.sort(latencies, 0, count);
+		double seconds = (now - start) / 1e9;
+		System.out.println(String.format("%-48s %10.1f %10.1f %10.1f %12d",
+			op.name(), count / seconds,
+			latencies[(int) (count * 0.50)] / 1000.0,
+			latencies[Math.min(count - 1, (int) (count * 0.99))] / 1000.0,
+			allocated / count));
+	}//end measure
+
+	/**
+	 * Method to run an operation once with a fresh form.
+	 *
+	 * @return false when the fixture had nothing left for the form
+	 */
+	private boolean runOnce(Operation op) throws Exception {
+		String form = op.form(this._fixture);
+		if (form == null) return false;
+		MechanicShop esql = op instanceof Report ? reportSession(form) : session(form);
+		try{
+			op.run(esql);
+			op.after(esql, this._fixture);
+		}finally{
+			esql.cleanup();
+		}//end try
+		return true;
+	}//end runOnce
+
+	/**
+	 * Usage: ShopBench <dbname> <port> <user> [warmup s] [measure s] [operation ...]
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] " + ShopBench.class.getName() +
+				" <dbname> <port> <user> [warmup seconds] [measure seconds] [operation ...]");
+			return;
+		}//end if
+		long warmup = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 5000;
+		long measure = args.length > 4 ? Long.parseLong(args[4]) * 1000 : 10000;
+		List<String> selected = new ArrayList<String>(Arrays.asList(args).subList(Math.min(5, args.length), args.length));
+
+		ConnectionPool pool = new ConnectionPool(MechanicShop.url(args[0], args[1]), args[2], "", 1, 60 * 1000);
+		try{
+			ShopBench bench = new ShopBench(pool);
+			System.out.println(String.format("%-48s %10s %10s %10s %12s", "operation", "ops/s", "p50 us", "p99 us", "alloc B/op"));
+			for (Operation op : OPERATIONS){
+				if (selected.isEmpty() || selected.contains(op.name()))
+					bench.measure(op, warmup, measure);
+			}//end for
+		}finally{
+			pool.close();
+		}//end try
+	}//end main
+}
@@ -0,0 +1,15 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Builds bin/shop.jsa, an AppCDS archive of the classes a session loads up
+# to its first prompt and connection, for run.sh to start from.  The
+# archive only covers classes in jars, so the compiled classes are packed
+# into bin/shop.jar first.  Run it again after compile.sh, with the same JDK
+# as run.sh.
+# Example: source ./cds.sh flightDB 5432 user
+rm -f bin/shop.jar bin/shop.jsa
+(cd bin && jar cf shop.jar *.class) || exit 1
+# the session exits at end of input, once the connection has had time to open
+sleep 2 | java -XX:ArchiveClassesAtExit=bin/shop.jsa -cp lib/postgresql-42.1.4.jar:bin/shop.jar MechanicShop $DBNAME $PORT $USER > /dev/null
@@ -0,0 +1,6 @@
+#! /bin/bash
+HOST=${1:-localhost}
+LISTEN=$2
+
+# Example: source ./client.sh localhost 7000
+java -cp bin/ ShopClient $HOST $LISTEN
@@ -1,3 +1,6 @@
 #! /bin/bash
-rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/MechanicShop.java -d bin/
+# the AppCDS archive of cds.sh is stale once the classes change
+rm -rf bin/*.class bin/shop.jar bin/shop.jsa
+# string concatenation compiled inline instead of through invokedynamic,
+# whose bootstrap was most of the time to the first prompt
+javac -XDstringConcat=inline -cp ".:lib/postgresql-42.1.4.jar" src/*.java -d bin/
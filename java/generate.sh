@@ -0,0 +1,8 @@
+#! /bin/bash
+SAMPLE=${1:-../data}
+OUT=$2
+SCALE=$3
+SEED=${4:-1}
+
+# Example: source ./generate.sh ../data /tmp/shop100x 100 1
+java -cp bin/ MechanicShop --generate $SAMPLE $OUT $SCALE $SEED
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+DATA=${4:-../data}
+
+# Example: source ./import.sh flightDB 5432 user ../data
+java -cp lib/*:bin/ MechanicShop --import $DBNAME $PORT $USER $DATA
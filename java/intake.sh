@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+KIND=$4
+FILE=${5:--}
+CHUNK=${6:-500}
+
+# Example: source ./intake.sh flightDB 5432 user requests fleet_requests.csv 500
+java -cp lib/*:bin/ MechanicShop --intake $DBNAME $PORT $USER $KIND $FILE $CHUNK
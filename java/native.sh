@@ -0,0 +1,6 @@
+#! /bin/bash
+# Builds bin/mechanicshop, a native executable of the classes compiled by
+# compile.sh, with GraalVM's native-image on the PATH.  The reflection and
+# resource configuration is read from native/META-INF/native-image.
+# Example: source ./native.sh
+native-image -cp lib/postgresql-42.1.4.jar:bin/:native/ -o bin/mechanicshop MechanicShop
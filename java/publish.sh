@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+SINK=$4
+CONSUMER=${5:-feed}
+BATCH=${6:-500}
+
+# Example: source ./publish.sh flightDB 5432 user /var/spool/shop/changes.jsonl billing 500
+java -cp lib/*:bin/ MechanicShop --publish $DBNAME $PORT $USER $SINK $CONSUMER $BATCH
@@ -3,5 +3,10 @@ DBNAME=$1
 PORT=$2
 USER=$3
 
+# Starts from the AppCDS archive of cds.sh when there is one
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+if [ -f bin/shop.jsa ]; then
+	java -XX:SharedArchiveFile=bin/shop.jsa -cp lib/postgresql-42.1.4.jar:bin/shop.jar MechanicShop $DBNAME $PORT $USER
+else
+	java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+fi
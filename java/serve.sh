@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+LISTEN=$4
+POOL=${5:-10}
+
+# Example: source ./serve.sh flightDB 5432 user 7000 10
+java -cp lib/*:bin/ MechanicShop --serve $DBNAME $PORT $USER $LISTEN $POOL
@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class enters many service requests, or many closures, at once from a
+ * CSV file or from the desk's input.  The rows are handled in chunks: the
+ * references of a whole chunk are checked with one query, the valid rows are
+ * sent as one JDBC batch (which the driver rewrites into multi-row inserts)
+ * and the chunk is committed.  Every rejected row is reported with its line
+ * number and the reason.
+ *
+ * Row layouts, one per line, an optional header line is skipped:
+ *   requests: customer_id,car_vin,date,odometer,complain
+ *   closures: rid,mid,date,comment,bill
+ * Dates are yyyy-mm-dd or M/d/yyyy as in the data/*.csv files.
+ *
+ */
+
+public class BatchIntake{
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+	private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+	public enum Kind { REQUESTS, CLOSURES }
+
+	private static final String INSERT_REQUEST =
+		"INSERT INTO service_request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String INSERT_CLOSURE =
+		"INSERT INTO closed_request (wid, rid, mid, date, comment, bill) VALUES (?, ?, ?, ?, ?, ?)";
+	//existing customers and cars among the chunk's references
+	private static final String CHECK_REQUESTS =
+		"SELECT 'c', id::text FROM customer WHERE id = ANY (?) " +
+		"UNION ALL SELECT 'v', vin FROM car WHERE vin = ANY (?);";
+	//existing requests and mechanics, and requests already closed
+	private static final String CHECK_CLOSURES =
+		"SELECT 'r', rid::text FROM service_request WHERE rid = ANY (?) " +
+		"UNION ALL SELECT 'm', id::text FROM mechanic WHERE id = ANY (?) " +
+		"UNION ALL SELECT 'c', rid::text FROM closed_request WHERE rid = ANY (?);";
+
+	/**
+	 * A parsed input line: its line number and the values to insert, the
+	 * generated key first.
+	 */
+	private static class Row{
+		final int line;
+		final Object[] values;
+
+		Row(int line, Object[] values){
+			this.line = line;
+			this.values = values;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final Kind _kind;
+	private final int _chunkSize;
+	private int _inserted = 0;
+	private int _rejected = 0;
+
+	public BatchIntake(MechanicShop esql, Kind kind, int chunkSize){
+		this._esql = esql;
+		this._kind = kind;
+		this._chunkSize = Math.max(1, chunkSize);
+	}
+
+	public int getInserted(){
+		return this._inserted;
+	}
+
+	public int getRejected(){
+		return this._rejected;
+	}
+
+	/**
+	 * Method to read rows until the end of the input, or until an empty line
+	 * when stopAtEmptyLine is set, and insert them chunk by chunk.
+	 *
+	 * @param reader the CSV input
+	 * @param stopAtEmptyLine whether an empty line ends the input, as when typed at the desk
+	 * @throws java.sql.SQLException when a chunk could not be checked or committed
+	 * @throws java.io.IOException when the input cannot be read
+	 */
+	public void run(BufferedReader reader, boolean stopAtEmptyLine) throws SQLException, IOException {
+		long start = System.nanoTime();
+		List<Row> chunk = new ArrayList<Row>(this._chunkSize);
+		int lineNumber = 0;
+		String line;
+		while ((line = reader.readLine()) != null){
+			++lineNumber;
+			if (line.trim().isEmpty()){
+				if (stopAtEmptyLine) break;
+				continue;
+			}//end if
+			try{
+				chunk.add(parse(lineNumber, line));
+			}catch(IllegalArgumentException e){
+				// a header line is not an error
+				if (lineNumber > 1 || Character.isDigit(line.trim().charAt(0)))
+					reject(lineNumber, "cannot parse (" + e.getMessage() + ")");
+				continue;
+			}//end try
+			if (chunk.size() >= this._chunkSize){
+				insertChunk(chunk);
+				chunk.clear();
+			}//end if
+		}//end while
+		if (!chunk.isEmpty())
+			insertChunk(chunk);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		this._esql.out.println(String.format("\t%d row(s) inserted, %d rejected in %.2f s (%.0f rows/sec)",
+			this._inserted, this._rejected, seconds, this._inserted / Math.max(seconds, 1e-9)));
+	}//end run
+
+	/**
+	 * Method to parse one line into a row.  The key is filled in when the
+	 * row is inserted.
+	 *
+	 * @throws java.lang.IllegalArgumentException when a field is missing or malformed
+	 */
+	private Row parse(int lineNumber, String line){
+		String[] fields;
+		if (this._kind == Kind.REQUESTS){
+			// the complaint is last and may contain commas
+			fields = line.split(",", 5);
+			if (fields.length < 5)
+				throw new IllegalArgumentException("expected 5 fields");
+			return new Row(lineNumber, new Object[] {
+				null, Integer.valueOf(fields[0].trim()), fields[1].trim(), date(fields[2]),
+				Integer.valueOf(fields[3].trim()), fields[4].trim() });
+		}//end if
+		// the comment sits between the date and the bill and may contain commas
+		fields = line.split(",", 4);
+		int lastComma = fields.length < 4 ? -1 : fields[3].lastIndexOf(',');
+		if (lastComma < 0)
+			throw new IllegalArgumentException("expected 5 fields");
+		return new Row(lineNumber, new Object[] {
+			null, Integer.valueOf(fields[0].trim()), Integer.valueOf(fields[1].trim()), date(fields[2]),
+			fields[3].substring(0, lastComma).trim(), Integer.valueOf(fields[3].substring(lastComma + 1).trim()) });
+	}//end parse
+
+	private static java.sql.Date date(String field){
+		StringBuilder iso = new StringBuilder(10);
+		String value = field.trim();
+		DataImporter.appendIsoDate(iso, value, 0, value.length());
+		return java.sql.Date.valueOf(iso.toString());
+	}//end date
+
+	/**
+	 * Method to check the references of a chunk with one query, give the
+	 * valid rows their keys and insert them as one batch in one transaction.
+	 * When the batch fails, for instance because another desk closed one of
+	 * the requests in the meantime, the chunk is retried row by row so that
+	 * only the offending rows are rejected.
+	 */
+	private void insertChunk(List<Row> chunk) throws SQLException {
+		Connection conn = this._esql.connection();
+		List<Row> valid = validate(conn, chunk);
+		if (valid.isEmpty()) return;
+
+		String sql = this._kind == Kind.REQUESTS ? INSERT_REQUEST : INSERT_CLOSURE;
+		String sequence = this._kind == Kind.REQUESTS ? "service_request_rid_seq" : "closed_request_wid_seq";
+		// one round trip reserves the keys of the whole chunk
+		int[] ids = this._esql.state().ids.next(this._esql, sequence, valid.size());
+		for (int i = 0; i < ids.length; i++)
+			valid.get(i).values[0] = ids[i];
+
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		long start = System.nanoTime();
+		PreparedStatement stmt = this._esql.prepare(sql);
+		try{
+			for (Row row : valid){
+				MechanicShop.bind(stmt, row.values);
+				stmt.addBatch();
+			}//end for
+			stmt.executeBatch();
+			conn.commit();
+			this._inserted += valid.size();
+			for (Row row : valid)
+				inserted(row);
+			QueryStats.INSTANCE.recordStatement(sql, start, valid.size(), 1);
+		}catch(BatchUpdateException e){
+			stmt.clearBatch();
+			conn.rollback();
+			QueryStats.INSTANCE.recordStatement(sql, start, -1, 1);
+			insertRowByRow(conn, stmt, valid);
+		}finally{
+			if (autoCommit){
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}//end if
+		}//end try
+	}//end insertChunk
+
+	private void insertRowByRow(Connection conn, PreparedStatement stmt, List<Row> rows) throws SQLException {
+		for (Row row : rows){
+			Savepoint savepoint = conn.setSavepoint();
+			try{
+				MechanicShop.bind(stmt, row.values);
+				stmt.executeUpdate();
+				conn.releaseSavepoint(savepoint);
+				++this._inserted;
+				inserted(row);
+			}catch(SQLException e){
+				conn.rollback(savepoint);
+				reject(row.line, e.getMessage());
+			}//end try
+		}//end for
+		conn.commit();
+	}//end insertRowByRow
+
+	/**
+	 * Method to tell the work scheduler about an inserted row: a new
+	 * request is open, a closed one is done.
+	 */
+	private void inserted(Row row){
+		WorkScheduler scheduler = this._esql.state().scheduler;
+		if (this._kind == Kind.REQUESTS)
+			scheduler.open((Integer) row.values[0], ((java.sql.Date) row.values[3]).toLocalDate().toEpochDay());
+		else
+			scheduler.complete((Integer) row.values[1]);
+	}//end inserted
+
+	/**
+	 * Method to look up every customer and car (or request and mechanic)
+	 * the chunk refers to with one query and return the rows whose
+	 * references exist.  A request closed twice in the chunk is only kept
+	 * once.
+	 */
+	private List<Row> validate(Connection conn, List<Row> chunk) throws SQLException {
+		Set<String> found = new HashSet<String>();
+		Integer[] first = new Integer[chunk.size()];
+		Object[] second = new Object[chunk.size()];
+		for (int i = 0; i < chunk.size(); i++){
+			first[i] = (Integer) chunk.get(i).values[1];
+			second[i] = chunk.get(i).values[2];
+		}//end for
+		List<List<String>> result;
+		if (this._kind == Kind.REQUESTS){
+			Array vins = conn.createArrayOf("varchar", second);
+			result = this._esql.executeQueryAndReturnResult(CHECK_REQUESTS, conn.createArrayOf("int4", first), vins);
+		}else{
+			Array rids = conn.createArrayOf("int4", first);
+			result = this._esql.executeQueryAndReturnResult(CHECK_CLOSURES, rids, conn.createArrayOf("int4", second), rids);
+		}//end if
+		for (List<String> record : result)
+			found.add(record.get(0) + record.get(1).trim());
+
+		List<Row> valid = new ArrayList<Row>(chunk.size());
+		Set<Integer> closing = new HashSet<Integer>();
+		for (Row row : chunk){
+			Object ref1 = row.values[1];
+			Object ref2 = row.values[2];
+			if (this._kind == Kind.REQUESTS){
+				if (!found.contains("c" + ref1))
+					reject(row.line, "customer " + ref1 + " doesn't exist");
+				else if (!found.contains("v" + ref2))
+					reject(row.line, "car " + ref2 + " doesn't exist");
+				else
+					valid.add(row);
+			}else{
+				if (!found.contains("r" + ref1))
+					reject(row.line, "service_request " + ref1 + " doesn't exist");
+				else if (!found.contains("m" + ref2))
+					reject(row.line, "mechanic " + ref2 + " doesn't exist");
+				else if (found.contains("c" + ref1) || !closing.add((Integer) ref1))
+					reject(row.line, "service_request " + ref1 + " was already closed");
+				else
+					valid.add(row);
+			}//end if
+		}//end for
+		return valid;
+	}//end validate
+
+	private void reject(int line, String reason){
+		++this._rejected;
+		this._esql.out.println("\tline " + line + ": " + reason);
+	}//end reject
+
+	/**
+	 * Intake mode entry point, called by MechanicShop.main with
+	 * --intake <dbname> <port> <user> <requests|closures> <file or -> [rows per commit]
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args){
+		if (args.length != 6 && args.length != 7){
+			System.err.println("Usage: java [-classpath <classpath>] " + MechanicShop.class.getName() +
+				" --intake <dbname> <port> <user> <requests|closures> <file or -> [rows per commit]");
+			return;
+		}//end if
+		ConnectionPool pool = new ConnectionPool(MechanicShop.url(args[1], args[2]), args[3], "", 1, IDLE_TIMEOUT_MILLIS);
+		try{
+			Kind kind = Kind.valueOf(args[4].toUpperCase());
+			int chunkSize = args.length == 7 ? Integer.parseInt(args[6]) : DEFAULT_CHUNK_SIZE;
+			BufferedReader input = new BufferedReader(new InputStreamReader(
+				args[5].equals("-") ? System.in : new FileInputStream(args[5]), StandardCharsets.UTF_8));
+			// only the id allocator is used; nothing is loaded or cached
+			ShopState state = new ShopState();
+			MechanicShop esql = new MechanicShop(pool, state, null, System.out);
+			try{
+				new BatchIntake(esql, kind, chunkSize).run(input, false);
+			}finally{
+				input.close();
+				esql.releaseConnection();
+				state.close();
+			}//end try
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			pool.close();
+		}//end try
+	}//end main
+}
@@ -0,0 +1,326 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class publishes the change feed of migration V008 to downstream
+ * systems, so that they read what changed instead of rescanning the
+ * tables.  The triggers write every inserted, updated or deleted row of the
+ * shop tables to Change_Outbox in the writing transaction; the publisher
+ * drains the outbox in seq order, in batches, and writes one JSON line per
+ * change to a file or a TCP socket:
+ *
+ *   {"seq":42,"table":"service_request","op":"INSERT","changed":"...","row":{...}}
+ *
+ * After each batch is flushed the consumer's offset in Change_Offset is
+ * moved past it, so a restarted publisher resumes where it stopped and may
+ * repeat at most one batch; consumers skip the seqs they have seen.  Only
+ * one publisher per consumer runs at a time, guarded by an advisory lock.
+ *
+ * A missing seq belongs to a transaction that is still open or rolled
+ * back.  The publisher waits at it until every transaction that was running
+ * when it was first seen has ended, so a long transaction anywhere in the
+ * database holds the feed back until it ends.
+ *
+ */
+
+public class ChangePublisher{
+	//channel the V008 triggers notify after writing to the outbox
+	public static final String CHANNEL = "shop_changes";
+	public static final String DEFAULT_CONSUMER = "feed";
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	//longest wait for a notification before looking at the outbox anyway
+	private static final int WAIT_MILLIS = 5000;
+	private static final long RECONNECT_MILLIS = 5000;
+	//published changes are deleted once every consumer has them and they are this old
+	private static final long RETENTION_MILLIS = Long.getLong("shop.changeRetentionHours", 24L) * 60 * 60 * 1000;
+	private static final long PRUNE_EVERY_MILLIS = 10 * 60 * 1000;
+
+	/**
+	 * Where the changes go, one line at a time.
+	 */
+	public interface Sink extends Closeable {
+		void write(String line) throws IOException;
+		//called before the offset is moved past the lines written
+		void flush() throws IOException;
+	}
+
+	/**
+	 * Appends the changes to a file, forcing them to disk on flush.
+	 */
+	private static class FileSink implements Sink{
+		private final FileOutputStream _file;
+		private final Writer _out;
+
+		FileSink(String path) throws IOException {
+			this._file = new FileOutputStream(path, true);
+			this._out = new BufferedWriter(new OutputStreamWriter(this._file, StandardCharsets.UTF_8), 1 << 16);
+		}
+
+		public void write(String line) throws IOException {
+			this._out.write(line);
+			this._out.write('\n');
+		}
+
+		public void flush() throws IOException {
+			this._out.flush();
+			this._file.getChannel().force(false);
+		}
+
+		public void close() throws IOException {
+			this._out.close();
+		}
+	}
+
+	/**
+	 * Sends the changes to a consumer listening on a TCP port.
+	 */
+	private static class SocketSink implements Sink{
+		private final Socket _socket;
+		private final Writer _out;
+
+		SocketSink(String host, int port) throws IOException {
+			this._socket = new Socket(host, port);
+			this._out = new BufferedWriter(new OutputStreamWriter(this._socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+		}
+
+		public void write(String line) throws IOException {
+			this._out.write(line);
+			this._out.write('\n');
+		}
+
+		public void flush() throws IOException {
+			this._out.flush();
+		}
+
+		public void close() throws IOException {
+			this._socket.close();
+		}
+	}
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final String _target;
+	private final String _consumer;
+	private final int _batchSize;
+	//the last seq published, and the snapshot xmax when the seq after it
+	//was first seen missing, or 0
+	private long _offset = 0;
+	private long _gapXmax = 0;
+	private long _lastPrune = 0;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param target the file to append to, or tcp://host:port
+	 * @param consumer the name the offset is kept under
+	 * @param batchSize the most changes published per round trip
+	 */
+	public ChangePublisher(String url, String user, String passwd, String target, String consumer, int batchSize){
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._target = target;
+		this._consumer = consumer;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * Method to open the sink named by a target: tcp://host:port, or else
+	 * the path of a file.
+	 *
+	 * @throws java.io.IOException when the sink cannot be opened
+	 */
+	static Sink open(String target) throws IOException {
+		if (target.startsWith("tcp://")){
+			String address = target.substring("tcp://".length());
+			int colon = address.lastIndexOf(':');
+			return new SocketSink(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+		}//end if
+		return new FileSink(target);
+	}//end open
+
+	/**
+	 * Method to publish the changes until close is called.  Lost
+	 * connections to the database or the sink are opened again.
+	 */
+	public void run(){
+		while (!this._closed){
+			try{
+				Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+				try{
+					if (lock(connection)){
+						Sink sink = open(this._target);
+						try{
+							publish(connection, sink);
+						}finally{
+							sink.close();
+						}//end try
+					}else{
+						System.err.println("Another publisher is running for " + this._consumer + ", waiting");
+					}//end if
+				}finally{
+					connection.close();
+				}//end try
+			}catch(SQLException | IOException e){
+				System.err.println(e.getMessage());
+			}//end try
+			sleep(RECONNECT_MILLIS);
+		}//end while
+	}//end run
+
+	public void close(){
+		this._closed = true;
+	}
+
+	private boolean lock(Connection connection) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement("SELECT pg_try_advisory_lock(hashtext(?));");
+		try{
+			stmt.setString(1, CHANNEL + ":" + this._consumer);
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			return rs.getBoolean(1);
+		}finally{
+			stmt.close();
+		}//end try
+	}//end lock
+
+	/**
+	 * Method to drain the outbox whenever a notification arrives, starting
+	 * after the consumer's offset.
+	 */
+	private void publish(Connection connection, Sink sink) throws SQLException, IOException {
+		PGConnection pg = connection.unwrap(PGConnection.class);
+		Statement listen = connection.createStatement();
+		listen.execute("LISTEN " + CHANNEL);
+		listen.close();
+		PreparedStatement start = connection.prepareStatement(
+			"INSERT INTO change_offset (consumer, seq) VALUES (?, 0) ON CONFLICT (consumer) DO UPDATE SET seq = change_offset.seq RETURNING seq;");
+		PreparedStatement select = connection.prepareStatement(
+			"SELECT seq, table_name, op, to_char(changed, 'YYYY-MM-DD\"T\"HH24:MI:SS.US'), row_data, " +
+			"txid_snapshot_xmin(txid_current_snapshot()), txid_snapshot_xmax(txid_current_snapshot()) FROM change_outbox " +
+			"WHERE seq > ? ORDER BY seq LIMIT ?;");
+		PreparedStatement commit = connection.prepareStatement("UPDATE change_offset SET seq = ? WHERE consumer = ?;");
+		try{
+			start.setString(1, this._consumer);
+			ResultSet rs = start.executeQuery();
+			rs.next();
+			this._offset = rs.getLong(1);
+			this._gapXmax = 0;
+			System.out.println("Publishing changes after " + this._offset + " to " + this._target);
+			while (!this._closed){
+				// a full batch means there is more waiting
+				if (drain(select, commit, sink) < this._batchSize)
+					pg.getNotifications(this._gapXmax == 0 ? WAIT_MILLIS : 1000);
+				prune(connection);
+			}//end while
+		}finally{
+			start.close();
+			select.close();
+			commit.close();
+		}//end try
+	}//end publish
+
+	/**
+	 * Method to publish one batch of changes after the offset.  Stops early
+	 * at a missing seq while the transaction holding it may still commit.
+	 *
+	 * @return the number of changes published
+	 */
+	private int drain(PreparedStatement select, PreparedStatement commit, Sink sink) throws SQLException, IOException {
+		long start = System.nanoTime();
+		select.setLong(1, this._offset);
+		select.setInt(2, this._batchSize);
+		ResultSet rs = select.executeQuery();
+		long last = this._offset;
+		int count = 0;
+		StringBuilder line = new StringBuilder(256);
+		while (rs.next()){
+			long seq = rs.getLong(1);
+			if (seq != last + 1){
+				// the transaction holding the missing seq took it before seq
+				// was committed, so its txid is below the xmax of this
+				// snapshot; once the xmin passes that it has ended, and as
+				// this snapshot does not see the seq, it rolled back
+				if (this._gapXmax == 0) this._gapXmax = rs.getLong(7);
+				if (rs.getLong(6) < this._gapXmax) break;
+			}//end if
+			this._gapXmax = 0;
+			line.setLength(0);
+			line.append("{\"seq\":").append(seq)
+				.append(",\"table\":\"").append(rs.getString(2))
+				.append("\",\"op\":\"").append(rs.getString(3))
+				.append("\",\"changed\":\"").append(rs.getString(4))
+				.append("\",\"row\":").append(rs.getString(5)).append('}');
+			sink.write(line.toString());
+			last = seq;
+			++count;
+		}//end while
+		rs.close();
+		if (count == 0) return 0;
+		sink.flush();
+		commit.setLong(1, last);
+		commit.setString(2, this._consumer);
+		commit.executeUpdate();
+		this._offset = last;
+		QueryStats.INSTANCE.recordStatement("publish changes", start, count, 2);
+		return count;
+	}//end drain
+
+	/**
+	 * Method to delete the changes every consumer has published, once they
+	 * are older than the retention period.
+	 */
+	private void prune(Connection connection) throws SQLException {
+		long now = System.currentTimeMillis();
+		if (now - this._lastPrune < PRUNE_EVERY_MILLIS) return;
+		this._lastPrune = now;
+		PreparedStatement stmt = connection.prepareStatement(
+			"DELETE FROM change_outbox WHERE seq <= (SELECT MIN(seq) FROM change_offset) " +
+			"AND changed < now() - ? * interval '1 millisecond';");
+		try{
+			stmt.setLong(1, RETENTION_MILLIS);
+			stmt.executeUpdate();
+		}finally{
+			stmt.close();
+		}//end try
+	}//end prune
+
+	private static void sleep(long millis){
+		try{
+			Thread.sleep(millis);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}//end sleep
+
+	/**
+	 * Publish mode entry point, called by MechanicShop.main with
+	 * --publish <dbname> <port> <user> <file or tcp://host:port> [consumer] [batch size]
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args){
+		if (args.length < 5 || args.length > 7){
+			System.err.println("Usage: java [-classpath <classpath>] " + MechanicShop.class.getName() +
+				" --publish <dbname> <port> <user> <file or tcp://host:port> [consumer] [batch size]");
+			return;
+		}//end if
+		String consumer = args.length >= 6 ? args[5] : DEFAULT_CONSUMER;
+		int batchSize = args.length == 7 ? Integer.parseInt(args[6]) : DEFAULT_BATCH_SIZE;
+		new ChangePublisher(MechanicShop.url(args[1], args[2]), args[3], "", args[4], consumer, batchSize).run();
+	}//end main
+}
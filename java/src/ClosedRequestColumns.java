@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class keeps an in-memory, column-per-array copy of closed_request,
+ * joined to service_request for the customer, so that revenue
+ * questions are answered by scanning primitive arrays in parallel instead of
+ * by the database.  Customers and mechanics are dictionary-encoded:
+ * the columns hold dense codes and the dictionaries map them back to ids.
+ *
+ * The copy starts empty and is brought up to date by refresh(), which only
+ * reads rows above the highest wid loaded so far (less a window, since wids
+ * come from per-session blocks and do not commit in order).  Rows that are
+ * updated or deleted afterwards, or that commit more than REFRESH_WINDOW ids
+ * late, are only picked up when the copy is loaded again from scratch: once
+ * it is older than -Dshop.analyticsReloadSeconds (300 by default), and after
+ * a bulk load (see ShopState).  Readers see a consistent snapshot while a
+ * refresh runs.
+ *
+ */
+
+public class ClosedRequestColumns{
+	//how far below the highest loaded wid a refresh looks for late commits
+	static final int REFRESH_WINDOW = 1 << 16;
+	//how old the copy may get before refresh loads it again from scratch
+	private static final long RELOAD_MILLIS = Long.getLong("shop.analyticsReloadSeconds", 300L) * 1000;
+	//rows scanned by one fork-join task
+	private static final int SCAN_CHUNK = 1 << 16;
+
+	/**
+	 * The columns and how many of their rows are loaded.  Arrays are only
+	 * appended to past size, so a published Columns never changes.
+	 */
+	private static class Columns{
+		final int size;
+		final int[] wid;
+		final int[] rid;
+		final int[] mechanic;
+		final int[] customer;
+		//days since 1970-01-01
+		final int[] date;
+		final int[] bill;
+
+		Columns(int size, int[] wid, int[] rid, int[] mechanic, int[] customer, int[] date, int[] bill){
+			this.size = size;
+			this.wid = wid;
+			this.rid = rid;
+			this.mechanic = mechanic;
+			this.customer = customer;
+			this.date = date;
+			this.bill = bill;
+		}
+
+		Columns grow(int capacity){
+			return new Columns(this.size, Arrays.copyOf(this.wid, capacity), Arrays.copyOf(this.rid, capacity),
+				Arrays.copyOf(this.mechanic, capacity), Arrays.copyOf(this.customer, capacity),
+				Arrays.copyOf(this.date, capacity), Arrays.copyOf(this.bill, capacity));
+		}
+
+		Columns withSize(int size){
+			return new Columns(size, this.wid, this.rid, this.mechanic, this.customer, this.date, this.bill);
+		}
+	}
+
+	/**
+	 * Maps values to dense codes 0, 1, 2, ... in order of first appearance.
+	 */
+	private static class Dictionary<V>{
+		private final Map<V, Integer> _codes = new HashMap<V, Integer>();
+		private final List<V> _values = new ArrayList<V>();
+
+		synchronized int encode(V value){
+			Integer code = this._codes.get(value);
+			if (code == null){
+				code = this._values.size();
+				this._codes.put(value, code);
+				this._values.add(value);
+			}//end if
+			return code;
+		}
+
+		synchronized List<V> values(){
+			return new ArrayList<V>(this._values);
+		}
+
+		synchronized int size(){
+			return this._values.size();
+		}
+
+	}
+
+	/**
+	 * Sums values into one slot per key over rows [from, to), splitting the
+	 * range across the fork-join pool.  Each leaf is a plain loop over two
+	 * int arrays, which the JIT compiles to tight, unrolled code.  A leaf
+	 * has its own keyCount slots, so ranges are only split about as many
+	 * times as there are worker threads.
+	 */
+	private static class SumByKey extends RecursiveTask<long[]>{
+		private static final long serialVersionUID = 1L;
+
+		private final int[] _keys;
+		private final int[] _values;
+		private final int _keyCount;
+		private final int _chunk;
+		private final int _from;
+		private final int _to;
+
+		SumByKey(int[] keys, int[] values, int keyCount, int chunk, int from, int to){
+			this._keys = keys;
+			this._values = values;
+			this._keyCount = keyCount;
+			this._chunk = chunk;
+			this._from = from;
+			this._to = to;
+		}
+
+		protected long[] compute(){
+			if (this._to - this._from <= this._chunk){
+				long[] sums = new long[this._keyCount];
+				// values == null counts the rows instead
+				if (this._values == null){
+					for (int i = this._from; i < this._to; i++)
+						sums[this._keys[i]]++;
+				}else{
+					for (int i = this._from; i < this._to; i++)
+						sums[this._keys[i]] += this._values[i];
+				}//end if
+				return sums;
+			}//end if
+			int middle = (this._from + this._to) >>> 1;
+			SumByKey left = new SumByKey(this._keys, this._values, this._keyCount, this._chunk, this._from, middle);
+			left.fork();
+			long[] sums = new SumByKey(this._keys, this._values, this._keyCount, this._chunk, middle, this._to).compute();
+			long[] other = left.join();
+			for (int k = 0; k < sums.length; k++)
+				sums[k] += other[k];
+			return sums;
+		}
+	}
+
+	private final Dictionary<Integer> _customers = new Dictionary<Integer>();
+	private final Dictionary<Integer> _mechanics = new Dictionary<Integer>();
+	private volatile Columns _columns = new Columns(0, new int[0], new int[0], new int[0], new int[0], new int[0], new int[0]);
+	//wids loaded so far, so that the refresh window is not loaded twice
+	private final BitSet _loaded = new BitSet();
+	private int _watermark = -1;
+	//when reload last ran, and whether a bulk load has made the copy wrong since
+	private long _reloadedAt = 0;
+	private volatile boolean _stale = false;
+
+	/**
+	 * Method to load the closed requests written since the last refresh, or
+	 * the whole table when the copy is stale or too old.
+	 *
+	 * @param esql the session whose connection reads them
+	 * @return the number of rows added
+	 * @throws java.sql.SQLException when failed to read closed_request
+	 */
+	public synchronized int refresh(MechanicShop esql) throws SQLException {
+		if (this._stale || System.currentTimeMillis() - this._reloadedAt >= RELOAD_MILLIS)
+			return reload(esql);
+		return load(esql);
+	}//end refresh
+
+	private int load(MechanicShop esql) throws SQLException {
+		final int before = this._columns.size;
+		final Columns[] building = { this._columns };
+		String query = "SELECT cr.wid, cr.rid, cr.mid, sr.customer_id, cr.date, cr.bill " +
+			"FROM closed_request cr, service_request sr WHERE sr.rid = cr.rid AND cr.wid > ? ORDER BY cr.wid;";
+		try{
+			esql.executeQueryAndStream(query, new MechanicShop.RowHandler(){
+				public void header(String[] columns, int[] displaySizes){}
+
+				public void row(String[] values){
+					int wid = Integer.parseInt(values[0]);
+					if (ClosedRequestColumns.this._loaded.get(wid)) return;
+					Columns c = building[0];
+					int n = c.size;
+					if (n == c.wid.length)
+						c = c.grow(Math.max(1024, n * 2));
+					c.wid[n] = wid;
+					c.rid[n] = Integer.parseInt(values[1]);
+					c.mechanic[n] = ClosedRequestColumns.this._mechanics.encode(Integer.valueOf(values[2]));
+					c.customer[n] = ClosedRequestColumns.this._customers.encode(Integer.valueOf(values[3]));
+					c.date[n] = (int) LocalDate.parse(values[4]).toEpochDay();
+					c.bill[n] = Integer.parseInt(values[5]);
+					ClosedRequestColumns.this._loaded.set(wid);
+					ClosedRequestColumns.this._watermark = Math.max(ClosedRequestColumns.this._watermark, wid);
+					building[0] = c.withSize(n + 1);
+				}
+			}, Math.max(-1, this._watermark - REFRESH_WINDOW));
+		}catch(IOException e){
+			throw new SQLException(e.getMessage(), e);
+		}finally{
+			// whatever was read is published, even if the read failed half way
+			this._columns = building[0];
+		}//end try
+		return this._columns.size - before;
+	}//end load
+
+	/**
+	 * Method to drop the copy and load closed_request again from scratch.
+	 * The dictionaries are kept, so the codes of snapshots still being read
+	 * stay valid.
+	 */
+	public synchronized int reload(MechanicShop esql) throws SQLException {
+		this._columns = new Columns(0, new int[0], new int[0], new int[0], new int[0], new int[0], new int[0]);
+		this._loaded.clear();
+		this._watermark = -1;
+		this._stale = false;
+		this._reloadedAt = System.currentTimeMillis();
+		return load(esql);
+	}//end reload
+
+	/**
+	 * Method to have the next refresh load the copy again from scratch,
+	 * e.g. after a bulk load.
+	 */
+	public void invalidate(){
+		this._stale = true;
+	}
+
+	public int size(){
+		return this._columns.size;
+	}
+
+	private static long[] sumBy(int[] keys, int[] values, int keyCount, int size){
+		int chunk = Math.max(SCAN_CHUNK, size / ForkJoinPool.getCommonPoolParallelism() + 1);
+		return ForkJoinPool.commonPool().invoke(new SumByKey(keys, values, keyCount, chunk, 0, size));
+	}
+
+	/**
+	 * Method to total the bills per customer.
+	 *
+	 * @return customer id to the sum of their bills
+	 */
+	public Map<Integer, Long> billByCustomer(){
+		Columns c = this._columns;
+		return decode(sumBy(c.customer, c.bill, this._customers.size(), c.size), this._customers);
+	}
+
+	/**
+	 * Method to total the bills per mechanic.
+	 *
+	 * @return mechanic id to the sum of the bills of the requests they closed
+	 */
+	public Map<Integer, Long> billByMechanic(){
+		Columns c = this._columns;
+		return decode(sumBy(c.mechanic, c.bill, this._mechanics.size(), c.size), this._mechanics);
+	}
+
+	/**
+	 * Method to total the bills per calendar year.
+	 *
+	 * @return year to the sum of the bills closed in it
+	 */
+	public Map<Integer, Long> billByYear(){
+		Columns c = this._columns;
+		if (c.size == 0) return new HashMap<Integer, Long>();
+		// the years are few and contiguous; each row's year becomes a key
+		int[] years = new int[c.size];
+		int first = Integer.MAX_VALUE;
+		int last = Integer.MIN_VALUE;
+		for (int i = 0; i < c.size; i++){
+			years[i] = LocalDate.ofEpochDay(c.date[i]).getYear();
+			first = Math.min(first, years[i]);
+			last = Math.max(last, years[i]);
+		}//end for
+		for (int i = 0; i < c.size; i++)
+			years[i] -= first;
+		long[] sums = sumBy(years, c.bill, last - first + 1, c.size);
+		Map<Integer, Long> result = new HashMap<Integer, Long>();
+		for (int k = 0; k < sums.length; k++)
+			if (sums[k] != 0) result.put(first + k, sums[k]);
+		return result;
+	}//end billByYear
+
+	/**
+	 * Method to count the closed requests and total their bills, over all
+	 * rows and over the rows billed below the given amount.
+	 *
+	 * @return { rows, total bill, rows below, total bill below }
+	 */
+	public long[] totals(int below){
+		Columns c = this._columns;
+		int[] under = new int[c.size];
+		for (int i = 0; i < c.size; i++)
+			under[i] = c.bill[i] < below ? 1 : 0;
+		long[] counts = sumBy(under, null, 2, c.size);
+		long[] bills = sumBy(under, c.bill, 2, c.size);
+		return new long[] { counts[0] + counts[1], bills[0] + bills[1], counts[1], bills[1] };
+	}//end totals
+
+	private static <V> Map<V, Long> decode(long[] sums, Dictionary<V> dictionary){
+		List<V> values = dictionary.values();
+		Map<V, Long> result = new HashMap<V, Long>(sums.length * 2);
+		for (int code = 0; code < sums.length; code++)
+			if (sums[code] != 0) result.put(values.get(code), sums[code]);
+		return result;
+	}//end decode
+
+	/**
+	 * Method to pick the n entries with the largest sums, largest first.
+	 */
+	public static <V> List<Map.Entry<V, Long>> top(Map<V, Long> sums, int n){
+		PriorityQueue<Map.Entry<V, Long>> smallest = new PriorityQueue<Map.Entry<V, Long>>(n + 1, Map.Entry.comparingByValue());
+		for (Map.Entry<V, Long> entry : sums.entrySet()){
+			smallest.add(entry);
+			if (smallest.size() > n) smallest.poll();
+		}//end for
+		List<Map.Entry<V, Long>> result = new ArrayList<Map.Entry<V, Long>>(smallest);
+		result.sort(Map.Entry.<V, Long>comparingByValue().reversed());
+		return result;
+	}//end top
+}
@@ -0,0 +1,170 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a bounded pool of physical connections to the database
+ * so that many sessions can share a few Postgres backends.  A connection is
+ * validated before it is handed out again after sitting idle, and
+ * connections that stay idle longer than the idle timeout are closed.
+ *
+ */
+
+public class ConnectionPool{
+	//idle connections are checked with isValid() before reuse after this long
+	private static final long VALIDATE_AFTER_MILLIS = 30 * 1000;
+	private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+
+	/**
+	 * A pooled connection together with the prepared statements cached on it.
+	 */
+	public static class Entry{
+		public final Connection connection;
+		public final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		long idleSince;
+
+		Entry(Connection connection){
+			this.connection = connection;
+		}
+	}
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final long _idleTimeoutMillis;
+	//one permit per connection that may still be handed out
+	private final Semaphore _permits;
+	//idle connections, most recently released first
+	private final ArrayDeque<Entry> _idle = new ArrayDeque<Entry>();
+	private final ScheduledExecutorService _evictor;
+	private volatile boolean _closed = false;
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize, long idleTimeoutMillis){
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._permits = new Semaphore(maxSize, true);
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "connection-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to take a connection from the pool, waiting while all of them
+	 * are in use.  A new physical connection is opened when no idle one is
+	 * left.
+	 *
+	 * @return the borrowed connection
+	 * @throws java.sql.SQLException when the pool is closed or failed to connect
+	 */
+	public Entry borrow() throws SQLException {
+		if (this._closed)
+			throw new SQLException("Connection pool is closed");
+		try{
+			this._permits.acquire();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}//end try
+		try{
+			while (true){
+				Entry entry;
+				synchronized (this._idle){
+					entry = this._idle.pollFirst();
+				}
+				if (entry == null)
+					return new Entry(DriverManager.getConnection(this._url, this._user, this._passwd));
+				if (System.currentTimeMillis() - entry.idleSince < VALIDATE_AFTER_MILLIS
+						|| entry.connection.isValid(VALIDATE_TIMEOUT_SECONDS))
+					return entry;
+				close(entry);
+			}//end while
+		}catch(SQLException e){
+			this._permits.release();
+			throw e;
+		}//end try
+	}//end borrow
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  An open
+	 * transaction is rolled back first.
+	 *
+	 * @param entry the connection returned by borrow
+	 */
+	public void release(Entry entry){
+		try{
+			if (this._closed || entry.connection.isClosed()){
+				close(entry);
+				return;
+			}//end if
+			if (!entry.connection.getAutoCommit()){
+				entry.connection.rollback();
+				entry.connection.setAutoCommit(true);
+			}//end if
+			entry.idleSince = System.currentTimeMillis();
+			synchronized (this._idle){
+				this._idle.addFirst(entry);
+			}
+		}catch(SQLException e){
+			close(entry);
+		}finally{
+			this._permits.release();
+		}//end try
+	}//end release
+
+	/**
+	 * Method to close the connections that have been idle for longer than
+	 * the idle timeout.
+	 */
+	private void evictIdle(){
+		long cutoff = System.currentTimeMillis() - this._idleTimeoutMillis;
+		synchronized (this._idle){
+			Iterator<Entry> it = this._idle.descendingIterator();
+			while (it.hasNext()){
+				Entry entry = it.next();
+				if (entry.idleSince > cutoff)
+					break;
+				it.remove();
+				close(entry);
+			}//end while
+		}
+	}//end evictIdle
+
+	/**
+	 * Method to close every idle connection and stop handing out new ones.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		this._evictor.shutdownNow();
+		synchronized (this._idle){
+			for (Entry entry : this._idle)
+				close(entry);
+			this._idle.clear();
+		}
+	}//end close
+
+	private static void close(Entry entry){
+		try{
+			for (PreparedStatement stmt : entry.statements.values())
+				stmt.close();
+			entry.connection.close();
+		}catch(SQLException e){
+			// ignored.
+		}//end try
+	}//end close
+}
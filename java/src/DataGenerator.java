@@ -0,0 +1,316 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic data set with the layout of data/*.csv,
+ * scale times as large.  Names, addresses, makes, dates, odometers, bills
+ * and comments are drawn from the values of the sample files, and the
+ * number of cars per customer, requests per car and closures per mechanic
+ * follow the sample, so the reports behave as they would on real data.
+ * All foreign keys point at generated rows.
+ *
+ * The tables are cut into chunks written in parallel, each with a random
+ * generator seeded from the seed, the table and the chunk number, so the
+ * output is the same for the same seed whatever the number of threads.
+ *
+ */
+
+public class DataGenerator{
+	private static final int CHUNK_ROWS = 100000;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final long CUSTOMER = 1, MECHANIC = 2, CAR = 3, OWNS = 4, SERVICE_REQUEST = 5, CLOSED_REQUEST = 6, OWNER = 7;
+
+	//the sample rows, split into columns
+	private final List<String[]> _customers;
+	private final List<String[]> _mechanics;
+	private final List<String[]> _cars;
+	private final List<String[]> _requests;
+	private final List<String[]> _closed;
+	//owner of each sample car, as a sample customer index
+	private final int[] _carOwner;
+	//sample car index of each sample request, and sample mechanic index of each closure
+	private final int[] _requestCar;
+	private final int[] _closedMechanic;
+
+	private final long _seed;
+	private final int _scale;
+	private final Path _outDir;
+
+	public DataGenerator(Path sampleDir, Path outDir, int scale, long seed) throws IOException {
+		this._customers = read(sampleDir.resolve("customer.csv"));
+		this._mechanics = read(sampleDir.resolve("mechanic.csv"));
+		this._cars = read(sampleDir.resolve("car.csv"));
+		this._requests = read(sampleDir.resolve("service_request.csv"));
+		this._closed = read(sampleDir.resolve("closed_request.csv"));
+		List<String[]> owns = read(sampleDir.resolve("owns.csv"));
+		this._outDir = outDir;
+		this._scale = scale;
+		this._seed = seed;
+
+		Map<String, Integer> customerIndex = index(this._customers, 0);
+		Map<String, Integer> carIndex = index(this._cars, 0);
+		Map<String, Integer> mechanicIndex = index(this._mechanics, 0);
+
+		this._carOwner = new int[this._cars.size()];
+		for (int i = 0; i < this._carOwner.length; i++)
+			this._carOwner[i] = i % this._customers.size();
+		for (String[] own : owns){
+			Integer car = carIndex.get(own[2]);
+			Integer customer = customerIndex.get(own[1]);
+			if (car != null && customer != null)
+				this._carOwner[car] = customer;
+		}//end for
+
+		this._requestCar = new int[this._requests.size()];
+		for (int i = 0; i < this._requestCar.length; i++){
+			Integer car = carIndex.get(this._requests.get(i)[2]);
+			this._requestCar[i] = car != null ? car : i % this._cars.size();
+		}//end for
+
+		this._closedMechanic = new int[this._closed.size()];
+		for (int i = 0; i < this._closedMechanic.length; i++){
+			Integer mechanic = mechanicIndex.get(this._closed.get(i)[2]);
+			this._closedMechanic[i] = mechanic != null ? mechanic : i % this._mechanics.size();
+		}//end for
+	}
+
+	private static List<String[]> read(Path file) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+			if (!line.isEmpty())
+				rows.add(line.split(",", -1));
+		}//end for
+		if (rows.isEmpty())
+			throw new IOException(file + " is empty");
+		return rows;
+	}//end read
+
+	private static Map<String, Integer> index(List<String[]> rows, int column){
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < rows.size(); i++)
+			index.put(rows.get(i)[column], i);
+		return index;
+	}//end index
+
+	/**
+	 * Writes one row of a table into line, or leaves it empty to skip the row.
+	 */
+	private interface RowWriter{
+		void write(long row, SplittableRandom random, StringBuilder line);
+	}
+
+	/**
+	 * Method to write every table with the given number of threads.
+	 *
+	 * @param threads the number of chunks written at once
+	 * @throws java.lang.Exception when a file cannot be written
+	 */
+	public void generate(int threads) throws Exception {
+		Files.createDirectories(this._outDir);
+		final long customers = (long) this._customers.size() * this._scale;
+		final long mechanics = (long) this._mechanics.size() * this._scale;
+		final long cars = (long) this._cars.size() * this._scale;
+		final long requests = (long) this._requests.size() * this._scale;
+		final double closedFraction = Math.min(1.0, (double) this._closed.size() / this._requests.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try{
+			List<Future<?>> tables = new ArrayList<Future<?>>();
+			tables.addAll(table(executor, "customer", CUSTOMER, customers, (row, random, line) -> {
+				String[] sample = pick(this._customers, random);
+				line.append(row).append(',').append(sample[1]).append(',').append(sample[2]).append(",(");
+				digits(line, random, 3).append(')');
+				digits(line, random, 3).append('-');
+				digits(line, random, 4).append(',').append(sample[4]);
+			}));
+			tables.addAll(table(executor, "mechanic", MECHANIC, mechanics, (row, random, line) -> {
+				String[] name = pick(this._mechanics, random);
+				line.append(row).append(',').append(name[1]).append(',').append(name[2])
+					.append(',').append(pick(this._mechanics, random)[3]);
+			}));
+			tables.addAll(table(executor, "car", CAR, cars, (row, random, line) -> {
+				String[] model = pick(this._cars, random);
+				appendVin(line, row);
+				line.append(',').append(model[1]).append(',').append(model[2])
+					.append(',').append(pick(this._cars, random)[3]);
+			}));
+			tables.addAll(table(executor, "owns", OWNS, cars, (row, random, line) -> {
+				line.append(row).append(',').append(owner(row)).append(',');
+				appendVin(line, row);
+			}));
+			tables.addAll(table(executor, "service_request", SERVICE_REQUEST, requests, (row, random, line) -> {
+				long car = car(random);
+				line.append(row).append(',').append(owner(car)).append(',');
+				appendVin(line, car);
+				line.append(',').append(pick(this._requests, random)[3])
+					.append(',').append(pick(this._requests, random)[4])
+					.append(',').append(pick(this._requests, random)[5]);
+			}));
+			tables.addAll(table(executor, "closed_request", CLOSED_REQUEST, requests, (row, random, line) -> {
+				if (random.nextDouble() >= closedFraction)
+					return;
+				int sample = random.nextInt(this._closedMechanic.length);
+				long mechanic = this._closedMechanic[sample] + (long) this._mechanics.size() * random.nextInt(this._scale);
+				line.append(row).append(',').append(row).append(',').append(mechanic)
+					.append(',').append(pick(this._closed, random)[3])
+					.append(',').append(pick(this._closed, random)[4])
+					.append(',').append(pick(this._closed, random)[5]);
+			}));
+			for (Future<?> chunk : tables)
+				chunk.get();
+		}finally{
+			executor.shutdown();
+		}//end try
+
+		concat("customer", customers);
+		concat("mechanic", mechanics);
+		concat("car", cars);
+		concat("owns", cars);
+		concat("service_request", requests);
+		concat("closed_request", requests);
+	}//end generate
+
+	/**
+	 * Method to submit the chunks of one table; chunk i is written to
+	 * <table>.csv.part<i>.
+	 */
+	private List<Future<?>> table(ExecutorService executor, final String name, final long tableId, long rows, final RowWriter writer){
+		List<Future<?>> chunks = new ArrayList<Future<?>>();
+		for (long from = 0; from < rows; from += CHUNK_ROWS){
+			final long start = from;
+			final long end = Math.min(rows, from + CHUNK_ROWS);
+			chunks.add(executor.submit(() -> {
+				SplittableRandom random = new SplittableRandom(mix(this._seed, tableId, start / CHUNK_ROWS));
+				Path part = this._outDir.resolve(name + ".csv.part" + (start / CHUNK_ROWS));
+				BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(part), StandardCharsets.UTF_8), BUFFER_SIZE);
+				try{
+					StringBuilder line = new StringBuilder(256);
+					for (long row = start; row < end; row++){
+						line.setLength(0);
+						writer.write(row, random, line);
+						if (line.length() > 0)
+							out.append(line).append('\n');
+					}//end for
+				}finally{
+					out.close();
+				}//end try
+				return null;
+			}));
+		}//end for
+		return chunks;
+	}//end table
+
+	/**
+	 * Method to join the chunk files of a table, in order, into <table>.csv.
+	 */
+	private void concat(String name, long rows) throws IOException {
+		Path target = this._outDir.resolve(name + ".csv");
+		FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			for (long chunk = 0; chunk * CHUNK_ROWS < rows; chunk++){
+				Path part = this._outDir.resolve(name + ".csv.part" + chunk);
+				FileChannel in = FileChannel.open(part, StandardOpenOption.READ);
+				try{
+					long size = in.size();
+					for (long done = 0; done < size; )
+						done += in.transferTo(done, size - done, out);
+				}finally{
+					in.close();
+				}//end try
+				Files.delete(part);
+			}//end for
+		}finally{
+			out.close();
+		}//end try
+		System.out.println("Wrote " + target);
+	}//end concat
+
+	/**
+	 * Method to pick a car for a request so that the number of requests per
+	 * car follows the sample.
+	 */
+	private long car(SplittableRandom random){
+		int sample = this._requestCar[random.nextInt(this._requestCar.length)];
+		return sample + (long) this._cars.size() * random.nextInt(this._scale);
+	}//end car
+
+	/**
+	 * Method to return the owner of a car.  It is a pure function of the car
+	 * so that owns and service_request agree without sharing state.
+	 */
+	private long owner(long car){
+		int sample = this._carOwner[(int) (car % this._cars.size())];
+		long copy = Math.floorMod(mix(this._seed, OWNER, car), (long) this._scale);
+		return sample + (long) this._customers.size() * copy;
+	}//end owner
+
+	/**
+	 * Method to append the VIN of a car: six letters followed by ten digits.
+	 * The digits are a bijection of the car number, so VINs never repeat.
+	 */
+	private void appendVin(StringBuilder line, long car){
+		long letters = mix(this._seed, CAR, car);
+		for (int i = 0; i < 6; i++){
+			line.append((char) ('A' + Math.floorMod(letters, 26L)));
+			letters /= 26;
+		}//end for
+		line.append(1000000000L + Math.floorMod(car * 7919L, 9000000000L));
+	}//end appendVin
+
+	private static String[] pick(List<String[]> rows, SplittableRandom random){
+		return rows.get(random.nextInt(rows.size()));
+	}
+
+	private static StringBuilder digits(StringBuilder line, SplittableRandom random, int count){
+		for (int i = 0; i < count; i++)
+			line.append((char) ('0' + random.nextInt(10)));
+		return line;
+	}
+
+	private static long mix(long seed, long table, long n){
+		long h = seed * 0x9E3779B97F4A7C15L + table * 0xC2B2AE3D27D4EB4FL + n;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}//end mix
+
+	/**
+	 * Generate mode entry point, called by MechanicShop.main with
+	 * --generate <sample dir> <out dir> <scale> [seed] [threads]
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args){
+		if (args.length < 4 || args.length > 6){
+			System.err.println("Usage: java [-classpath <classpath>] " + MechanicShop.class.getName() +
+				" --generate <sample dir> <out dir> <scale> [seed] [threads]");
+			return;
+		}//end if
+		try{
+			int scale = Integer.parseInt(args[3]);
+			long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+			int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+			long start = System.nanoTime();
+			new DataGenerator(Paths.get(args[1]), Paths.get(args[2]), scale, seed).generate(threads);
+			System.out.println(String.format("Generated scale %d in %.1f s", scale, (System.nanoTime() - start) / 1e9));
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}//end try
+	}//end main
+}
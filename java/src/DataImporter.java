@@ -0,0 +1,297 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class loads the data/*.csv files (or larger generated ones with the
+ * same layout) from the client machine, streaming each file through COPY
+ * FROM STDIN.  The tables of one stage are loaded in parallel, each on its
+ * own connection, and the stages run in foreign key order.  Dates are
+ * rewritten from M/d/yyyy HH:mm to ISO on the fly, so the load does not
+ * depend on the server's DateStyle.
+ *
+ */
+
+public class DataImporter{
+	//bytes sent to the server per CopyData message
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+	/**
+	 * A table to load: its name, the columns in file order and the index of
+	 * the date column, or -1 if it has none.
+	 */
+	private static class Table{
+		final String name;
+		final String columns;
+		final int dateColumn;
+
+		Table(String name, String columns, int dateColumn){
+			this.name = name;
+			this.columns = columns;
+			this.dateColumn = dateColumn;
+		}
+	}
+
+	//the tables in foreign key order; the tables of a stage do not depend on each other
+	private static final Table[][] STAGES = {
+		{
+			new Table("customer", "id, fname, lname, phone, address", -1),
+			new Table("mechanic", "id, fname, lname, experience", -1),
+			new Table("car", "vin, make, model, year", -1)
+		},
+		{
+			new Table("owns", "ownership_id, customer_id, car_vin", -1),
+			new Table("service_request", "rid, customer_id, car_vin, date, odometer, complain", 3)
+		},
+		{
+			new Table("closed_request", "wid, rid, mid, date, comment, bill", 3)
+		}
+	};
+
+	//restarts the key sequences after the loaded data, as create.sql does,
+	//but never below a block a running desk has already reserved
+	private static final String[] RESEED = {
+		reseed("customer_id_seq", "id", "customer"),
+		reseed("mechanic_id_seq", "id", "mechanic"),
+		reseed("owns_ownership_id_seq", "ownership_id", "owns"),
+		reseed("service_request_rid_seq", "rid", "service_request"),
+		reseed("closed_request_wid_seq", "wid", "closed_request")
+	};
+
+	//recomputes the V003 aggregates in one pass, as the loads skip their row triggers
+	private static final String[] REBUILD_AGGREGATES = {
+		"TRUNCATE car_service_count, customer_total_bill;",
+		"INSERT INTO car_service_count SELECT car_vin, COUNT(*) FROM service_request GROUP BY car_vin;",
+		"INSERT INTO customer_total_bill SELECT service_request.customer_id, SUM(bill) FROM service_request, closed_request " +
+			"WHERE service_request.rid = closed_request.rid GROUP BY service_request.customer_id;",
+		"ANALYZE car_service_count;",
+		"ANALYZE customer_total_bill;"
+	};
+
+	/**
+	 * Method to build the statement that restarts a sequence after the
+	 * highest key of its table.  The blocks [last_value, last_value +
+	 * BLOCK_SIZE) handed out by IdAllocator stay reserved.
+	 */
+	private static String reseed(String sequence, String column, String table){
+		return "SELECT setval('" + sequence + "', GREATEST((SELECT COALESCE(MAX(" + column + "), -1) + 1 FROM " + table + "), " +
+			"(SELECT last_value + CASE WHEN is_called THEN " + IdAllocator.BLOCK_SIZE + " ELSE 0 END FROM " + sequence + ")), false);";
+	}//end reseed
+
+	private final ConnectionPool _pool;
+	private final File _dataDir;
+
+	public DataImporter(ConnectionPool pool, File dataDir){
+		this._pool = pool;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * Method to load every table, one stage after the other, and restart
+	 * the key sequences afterwards.  A table whose file is missing is
+	 * skipped.
+	 *
+	 * @throws java.lang.Exception when a table fails to load
+	 */
+	public void importAll() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		long start = System.nanoTime();
+		long total = 0;
+		try{
+			for (Table[] stage : STAGES){
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for (final Table table : stage){
+					final File file = new File(this._dataDir, table.name + ".csv");
+					if (!file.exists()){
+						System.out.println(table.name + ": " + file + " not found, skipped");
+						continue;
+					}//end if
+					loads.add(executor.submit(() -> load(table, file)));
+				}//end for
+				// the next stage references the rows of this one
+				for (Future<Long> load : loads)
+					total += load.get();
+			}//end for
+		}finally{
+			executor.shutdown();
+		}//end try
+
+		ConnectionPool.Entry entry = this._pool.borrow();
+		try{
+			Statement stmt = entry.connection.createStatement();
+			for (String sql : RESEED)
+				stmt.execute(sql);
+			rebuildAggregates(entry);
+			// tell the running MechanicShop processes to drop their caches
+			stmt.execute("SELECT pg_notify('" + ShopState.CHANNEL + "', '*');");
+			stmt.close();
+		}finally{
+			this._pool.release(entry);
+		}//end try
+		report("total", total, System.nanoTime() - start);
+	}//end importAll
+
+	/**
+	 * Method to recompute Car_Service_Count and Customer_Total_Bill from the
+	 * loaded rows in one transaction.  Does nothing before migration V003.
+	 */
+	private static void rebuildAggregates(ConnectionPool.Entry entry) throws SQLException {
+		long start = System.nanoTime();
+		Statement stmt = entry.connection.createStatement();
+		try{
+			ResultSet rs = stmt.executeQuery("SELECT to_regclass('car_service_count') IS NOT NULL;");
+			rs.next();
+			if (!rs.getBoolean(1)) return;
+			entry.connection.setAutoCommit(false);
+			for (String sql : REBUILD_AGGREGATES)
+				stmt.execute(sql);
+			entry.connection.commit();
+		}catch(SQLException e){
+			if (!entry.connection.getAutoCommit())
+				entry.connection.rollback();
+			throw e;
+		}finally{
+			entry.connection.setAutoCommit(true);
+			stmt.close();
+		}//end try
+		System.out.println(String.format("aggregates: rebuilt in %.2f s", (System.nanoTime() - start) / 1e9));
+	}//end rebuildAggregates
+
+	/**
+	 * Method to stream one file into its table with COPY FROM STDIN.
+	 *
+	 * @param table the table to load
+	 * @param file the CSV file
+	 * @return the number of rows loaded
+	 * @throws java.lang.Exception when the file cannot be read or the COPY fails
+	 */
+	private long load(Table table, File file) throws Exception {
+		long start = System.nanoTime();
+		ConnectionPool.Entry entry = this._pool.borrow();
+		try{
+			// one notification per row would flood the shop_cache channel
+			Statement stmt = entry.connection.createStatement();
+			stmt.execute("SET shop.skip_cache_notify = on");
+			// the change feed starts after the initial load
+			stmt.execute("SET shop.skip_change_feed = on");
+			// one upsert per row is far slower than rebuilding the aggregates afterwards
+			stmt.execute("SET shop.skip_aggregates = on");
+			stmt.close();
+			PGConnection pg = entry.connection.unwrap(PGConnection.class);
+			CopyIn copy = pg.getCopyAPI().copyIn("COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH DELIMITER ','");
+			try{
+				BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+				try{
+					StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 1024);
+					String line;
+					while ((line = reader.readLine()) != null){
+						if (line.isEmpty()) continue;
+						appendLine(chunk, line, table.dateColumn);
+						if (chunk.length() >= CHUNK_SIZE){
+							send(copy, chunk);
+						}//end if
+					}//end while
+					send(copy, chunk);
+				}finally{
+					reader.close();
+				}//end try
+				long rows = copy.endCopy();
+				report(table.name, rows, System.nanoTime() - start);
+				return rows;
+			}finally{
+				if (copy.isActive())
+					copy.cancelCopy();
+			}//end try
+		}finally{
+			this._pool.release(entry);
+		}//end try
+	}//end load
+
+	private static void send(CopyIn copy, StringBuilder chunk) throws SQLException {
+		if (chunk.length() == 0) return;
+		byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+		copy.writeToCopy(bytes, 0, bytes.length);
+		chunk.setLength(0);
+	}//end send
+
+	/**
+	 * Method to append a line to the COPY data, rewriting its date column
+	 * to yyyy-mm-dd.
+	 */
+	static void appendLine(StringBuilder out, String line, int dateColumn){
+		if (dateColumn < 0){
+			out.append(line).append('\n');
+			return;
+		}//end if
+		int from = 0;
+		for (int i = 0; i < dateColumn; i++)
+			from = line.indexOf(',', from) + 1;
+		int to = line.indexOf(',', from);
+		if (to < 0) to = line.length();
+		out.append(line, 0, from);
+		appendIsoDate(out, line, from, to);
+		out.append(line, to, line.length()).append('\n');
+	}//end appendLine
+
+	/**
+	 * Method to append the M/d/yyyy[ HH:mm] date in line[from, to) as
+	 * yyyy-mm-dd.  Anything else is copied unchanged.
+	 */
+	static void appendIsoDate(StringBuilder out, String line, int from, int to){
+		int slash1 = line.indexOf('/', from);
+		int slash2 = slash1 < 0 ? -1 : line.indexOf('/', slash1 + 1);
+		if (slash1 < 0 || slash2 < 0 || slash2 >= to){
+			out.append(line, from, to);
+			return;
+		}//end if
+		int yearEnd = slash2 + 1;
+		while (yearEnd < to && Character.isDigit(line.charAt(yearEnd)))
+			++yearEnd;
+		out.append(line, slash2 + 1, yearEnd).append('-');
+		if (slash1 - from < 2) out.append('0');
+		out.append(line, from, slash1).append('-');
+		if (slash2 - slash1 - 1 < 2) out.append('0');
+		out.append(line, slash1 + 1, slash2);
+	}//end appendIsoDate
+
+	private static void report(String name, long rows, long nanos){
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%s: %d row(s) in %.2f s (%.0f rows/sec)", name, rows, seconds, rows / Math.max(seconds, 1e-9)));
+	}//end report
+
+	/**
+	 * Import mode entry point, called by MechanicShop.main with
+	 * --import <dbname> <port> <user> <data dir>
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args){
+		if (args.length != 5){
+			System.err.println("Usage: java [-classpath <classpath>] " + MechanicShop.class.getName() +
+				" --import <dbname> <port> <user> <data dir>");
+			return;
+		}//end if
+		ConnectionPool pool = new ConnectionPool(MechanicShop.url(args[1], args[2]), args[3], "", 3, IDLE_TIMEOUT_MILLIS);
+		try{
+			new DataImporter(pool, new File(args[4])).importAll();
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			pool.close();
+		}//end try
+	}//end main
+}
@@ -0,0 +1,122 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a size-bounded, least recently used cache of table rows
+ * keyed by primary key, with hit, miss and eviction counters.  Only rows
+ * that exist are cached; a key is dropped again when the row is written,
+ * here or in another process (see ShopState).  A row read from the database
+ * is only put if nothing was dropped while it was being read, since it may
+ * predate the write that was.
+ *
+ */
+
+public class EntityCache<K>{
+	private final String _name;
+	private final int _maxSize;
+	private final LinkedHashMap<K, List<String>> _rows;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	//counts the drops, so that put can tell whether one happened since a read
+	private long _generation = 0;
+	//set while writes may go unnoticed; nothing is cached meanwhile
+	private boolean _bypassed = false;
+
+	public EntityCache(String name, int maxSize){
+		this._name = name;
+		this._maxSize = maxSize;
+		// access order makes the eldest entry the least recently used one
+		this._rows = new LinkedHashMap<K, List<String>>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, List<String>> eldest){
+				if (size() <= EntityCache.this._maxSize)
+					return false;
+				++EntityCache.this._evictions;
+				return true;
+			}
+		};
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	/**
+	 * Method to return the cached row of a key and count a hit or a miss.
+	 *
+	 * @param key the primary key
+	 * @return the row, or null if it is not cached
+	 */
+	public synchronized List<String> get(K key){
+		List<String> row = this._bypassed ? null : this._rows.get(key);
+		if (row == null) ++this._misses;
+		else ++this._hits;
+		return row;
+	}//end get
+
+	public synchronized void put(K key, List<String> row){
+		if (!this._bypassed)
+			this._rows.put(key, row);
+	}
+
+	/**
+	 * Method to cache a row read from the database, unless a key was
+	 * dropped since the read began.
+	 *
+	 * @param generation the generation() taken before the read
+	 */
+	public synchronized void put(K key, List<String> row, long generation){
+		if (generation == this._generation)
+			put(key, row);
+	}//end put
+
+	public synchronized long generation(){
+		return this._generation;
+	}
+
+	public synchronized void invalidate(K key){
+		this._rows.remove(key);
+		++this._generation;
+	}
+
+	public synchronized void clear(){
+		this._rows.clear();
+		++this._generation;
+	}
+
+	/**
+	 * Method to stop caching until resume is called.
+	 */
+	public synchronized void bypass(){
+		this._bypassed = true;
+		clear();
+	}
+
+	/**
+	 * Method to cache again, starting empty.
+	 */
+	public synchronized void resume(){
+		clear();
+		this._bypassed = false;
+	}
+
+	public synchronized long getHits(){
+		return this._hits;
+	}
+
+	public synchronized long getMisses(){
+		return this._misses;
+	}
+
+	/**
+	 * Method to describe the size and counters of the cache in one line.
+	 */
+	public synchronized String stats(){
+		long lookups = this._hits + this._misses;
+		return String.format("%s cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+			this._name, this._rows.size(), this._maxSize, this._hits, this._misses,
+			lookups == 0 ? 0.0 : 100.0 * this._hits / lookups, this._evictions);
+	}//end stats
+}
@@ -0,0 +1,132 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class hands out primary keys from the database sequences declared in
+ * create.sql.  Every nextval reserves a whole block of BLOCK_SIZE ids (the
+ * sequences are created with INCREMENT BY BLOCK_SIZE), and the ids inside a
+ * block are given out locally, so only one insert in BLOCK_SIZE pays a
+ * round trip for its key.  Because the blocks come from the sequence, two
+ * clerks running at the same time never receive the same id.  When a block
+ * is used up, the next one can be reserved in the pipeline of the insert
+ * that used its last id, so that no insert waits for a reservation.
+ *
+ */
+
+public class IdAllocator{
+	//must match INCREMENT BY of the sequences in create.sql
+	public static final int BLOCK_SIZE = 20;
+
+	//the reserved block of each sequence
+	private final Map<String, Block> _blocks = new HashMap<String, Block>();
+
+	/**
+	 * A reserved range [next, end) of a sequence and the last id given out,
+	 * and the reservation of the next block queued in a pipeline, if any.
+	 */
+	private static class Block{
+		int next;
+		int end;
+		int last = -1;
+		Pipeline.Result spare = null;
+	}
+
+	/**
+	 * Method to return the next unused id of a sequence.  A new block is
+	 * reserved from the database when the current one is used up.
+	 *
+	 * @param esql the session whose connection reserves the block
+	 * @param sequence name of the DB sequence
+	 * @return the next id
+	 * @throws java.sql.SQLException when failed to reserve a new block
+	 */
+	public synchronized int next(MechanicShop esql, String sequence) throws SQLException {
+		Block block = block(sequence);
+		if (block.next >= block.end){
+			// a spare whose pipeline failed was never reserved
+			int start = block.spare != null && block.spare.isDone() ? block.spare.getInt() : -1;
+			block.spare = null;
+			if (start < 0)
+				start = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT nextval(?::regclass);", sequence).get(0).get(0));
+			block.next = start;
+			block.end = start + BLOCK_SIZE;
+		}//end if
+		block.last = block.next++;
+		return block.last;
+	}//end next
+
+	/**
+	 * Method to return many unused ids of a sequence at once, as for a
+	 * batch of inserts: what is left of the current block, then as many new
+	 * blocks as needed, reserved with one query.  The ids left over in the
+	 * last block are handed out by next.
+	 *
+	 * @param esql the session whose connection reserves the blocks
+	 * @param sequence name of the DB sequence
+	 * @param count how many ids
+	 * @return the ids, ascending within each block
+	 * @throws java.sql.SQLException when failed to reserve the blocks
+	 */
+	public synchronized int[] next(MechanicShop esql, String sequence, int count) throws SQLException {
+		Block block = block(sequence);
+		int[] ids = new int[count];
+		int n = 0;
+		while (n < count && block.next < block.end)
+			ids[n++] = block.next++;
+		if (n < count){
+			int blocks = (count - n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			for (List<String> start : esql.executeQueryAndReturnResult("SELECT nextval(?::regclass) FROM generate_series(1, ?);", sequence, blocks)){
+				block.next = Integer.parseInt(start.get(0));
+				block.end = block.next + BLOCK_SIZE;
+				while (n < count && block.next < block.end)
+					ids[n++] = block.next++;
+			}//end for
+		}//end if
+		if (count > 0)
+			block.last = ids[count - 1];
+		return ids;
+	}//end next
+
+	private Block block(String sequence){
+		Block block = this._blocks.get(sequence);
+		if (block == null){
+			block = new Block();
+			this._blocks.put(sequence, block);
+		}//end if
+		return block;
+	}//end block
+
+	/**
+	 * Method to queue the reservation of the next block of a sequence in a
+	 * pipeline when the current block is used up.  Does nothing otherwise.
+	 *
+	 * @param pipeline the pipeline of the statement that used the id
+	 * @param sequence name of the DB sequence
+	 */
+	public synchronized void refill(Pipeline pipeline, String sequence){
+		Block block = this._blocks.get(sequence);
+		if (block == null || block.next < block.end || block.spare != null) return;
+		block.spare = pipeline.add("SELECT nextval(?::regclass);", sequence);
+	}//end refill
+
+	/**
+	 * Method to forget the reserved blocks, e.g. after a bulk load that may
+	 * have used their ids; the next id of each sequence reserves a new one.
+	 */
+	public synchronized void clear(){
+		this._blocks.clear();
+	}//end clear
+
+	/**
+	 * Method to return the last id given out for a sequence.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return the last id, or -1 if none was given out yet
+	 */
+	public synchronized int current(String sequence){
+		Block block = this._blocks.get(sequence);
+		return block == null ? -1 : block.last;
+	}//end current
+}
@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,9 +22,20 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Random; 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,25 +44,347 @@ import java.util.Random;
  */
 
 public class MechanicShop{
+	//choice that leaves the main menu
+	static final int EXIT = 16;
+	//rows fetched per round trip by executeQueryAndStream
+	static final int FETCH_SIZE = 1000;
+	//names of the menu operations, in menu order; choice i runs OPERATIONS[i - 1]
+	static final String[] OPERATIONS = {
+		"AddCustomer", "AddMechanic", "AddCar", "InsertServiceRequest", "CloseServiceRequest",
+		"ListCustomersWithBillLessThan100", "ListCustomersWithMoreThan20Cars",
+		"ListCarsBefore1995With50000Milles", "ListKCarsWithTheMostServices",
+		"ListCustomersInDescendingOrderOfTheirTotalBill", "ReportOutput", "BatchIntake",
+		"AnalyticsSummary", "AssignServiceRequest", "Search"
+	};
+
+	//latency, row and round trip counts of every statement and operation
+	private static final QueryStats STATS = QueryStats.INSTANCE;
+	//reports still running after this long are cancelled, 0 for never
+	private static final long REPORT_TIMEOUT_MILLIS = Long.getLong("shop.reportTimeoutSeconds", 0L) * 1000;
+	//epoch millis the launcher started at, set by startup.sh to time the first prompt
+	private static final long LAUNCHED_AT = Long.getLong("shop.launchedAt", 0L);
+	//requests AssignServiceRequest tries before giving up when other desks
+	//keep taking them first
+	private static final int ASSIGN_ATTEMPTS = 10;
+
+	/**
+	 * Receives the rows of a streamed query one at a time.
+	 */
+	public interface RowHandler {
+		void header(String[] columns, int[] displaySizes) throws IOException;
+		void row(String[] values) throws IOException;
+	}
+
+	/**
+	 * Reads the input of the session, first giving back the connections
+	 * borrowed for the running operation, so that a clerk who is typing or
+	 * reading a page holds none.  The next statement borrows again.  The
+	 * wait is left out of the operation's latency in the query stats.
+	 * Everything is delegated to the reader it wraps, so both can be read.
+	 */
+	private class PromptReader extends BufferedReader {
+		private final BufferedReader _in;
+
+		PromptReader(BufferedReader in) {
+			super(in, 1);
+			this._in = in;
+		}
+
+		public String readLine() throws IOException {
+			releaseConnection ();
+			long start = System.nanoTime ();
+			_inputLock.lock ();
+			try{
+				return this._in.readLine ();
+			}finally{
+				_inputLock.unlock ();
+				STATS.recordInput (start);
+			}//end try
+		}
+
+		public int read() throws IOException {
+			releaseConnection ();
+			long start = System.nanoTime ();
+			_inputLock.lock ();
+			try{
+				return this._in.read ();
+			}finally{
+				_inputLock.unlock ();
+				STATS.recordInput (start);
+			}//end try
+		}
+
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			releaseConnection ();
+			long start = System.nanoTime ();
+			_inputLock.lock ();
+			try{
+				return this._in.read (buffer, offset, length);
+			}finally{
+				_inputLock.unlock ();
+				STATS.recordInput (start);
+			}//end try
+		}
+
+		public boolean ready() throws IOException {
+			return this._in.ready ();
+		}
+
+		public void close() throws IOException {
+			this._in.close ();
+		}
+	}
+
 	//reference to physical database connection
 	private Connection _connection = null;
-	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//prepared statements on _connection, keyed by their SQL text
+	private Map<String, PreparedStatement> _statements = new HashMap<String, PreparedStatement>();
+	//pool the connection is borrowed from in server mode, and the borrowed entry
+	private ConnectionPool _pool = null;
+	private ConnectionPool.Entry _lease = null;
+	//the replica a read-only operation runs on, and the primary connection set aside meanwhile
+	private ReplicaRouter.Lease _replica = null;
+	//whether the running operation only reads and may borrow a replica
+	private boolean _routed = false;
+	private Connection _primaryConnection = null;
+	private Map<String, PreparedStatement> _primaryStatements = null;
+	//id allocator, VIN filter and row caches shared by the sessions of the process
+	private ShopState _state = null;
+	//opens _connection and loads _state in the background at startup
+	private volatile FutureTask<Void> _startup = null;
+	//how and where the reports are written; a null file means the terminal
+	private ReportWriter.Format _reportFormat = ReportWriter.Format.TEXT;
+	private String _reportFile = null;
+	private int _pageSize = ReportPager.DEFAULT_PAGE_SIZE;
+	//the statement last sent, and whether the running operation was cancelled
+	private volatile Statement _running = null;
+	private volatile boolean _cancelled = false;
+	//runs the reports of this session so that they can be cancelled
+	private MechanicShopAsync _async = null;
+	//input and output of the terminal or session driving the menu; in
+	//gives the borrowed connections back before each read of _input
+	final BufferedReader in;
+	private final BufferedReader _input;
+	//held while the operation reads _input, so runReport can peek at it without racing
+	private final ReentrantLock _inputLock = new ReentrantLock();
+	//characters runReport looks ahead for the Enter that cancels a report
+	private static final int CANCEL_PEEK = 256;
+	final PrintStream out;
+	final PrintStream err;
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this._input = new BufferedReader(new InputStreamReader(System.in));
+		this.in = new PromptReader(this._input);
+		this.out = System.out;
+		this.err = System.err;
 		System.out.print("Connecting to database...");
+		// constructs the connection URL
+		final String url = url(dbname, dbport);
+		System.out.println ("Connection URL: " + url + "\n");
+
+		// connects and loads the shared state while the menu is shown; the
+		// first operation waits for it in awaitStartup
+		this._startup = new FutureTask<Void>(() -> {
+			// the driver registers itself through META-INF/services/java.sql.Driver
+			this._connection = DriverManager.getConnection(url, user, passwd);
+			this._state = new ShopState(this._connection, url, user, passwd);
+			this._state.replicas = ReplicaRouter.fromProperties(url, user, passwd);
+			return null;
+		});
+		Thread connector = new Thread(this._startup, "shop-connect");
+		connector.setDaemon(true);
+		connector.start();
+	}
+
+	/**
+	 * Method to wait until the connection opened by the constructor is
+	 * ready.  Exits when it could not be opened.
+	 */
+	void awaitStartup() {
+		FutureTask<Void> startup = this._startup;
+		if (startup == null) return;
 		try{
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-			System.out.println ("Connection URL: " + url + "\n");
-			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
+			startup.get();
+			this._startup = null;
 		}catch(Exception e){
-			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
-	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
-		}
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			System.err.println("Error - Unable to Connect to Database: " + cause.getMessage());
+			System.out.println("Make sure you started postgres on this machine");
+			System.exit(-1);
+		}//end try
+	}//end awaitStartup
+
+	/**
+	 * Method to tell whether the connection opened by the constructor is
+	 * ready, without waiting for it.
+	 */
+	boolean connected() {
+		FutureTask<Void> startup = this._startup;
+		if (startup == null) return true;
+		if (!startup.isDone()) return false;
+		try{
+			startup.get();
+			return true;
+		}catch(Exception e){
+			return false;
+		}//end try
+	}//end connected
+
+	/**
+	 * Constructs a session that borrows its connection from a pool for the
+	 * duration of each menu operation.  The id allocator, VIN filter and
+	 * caches in state are shared by all sessions of the process.
+	 */
+	public MechanicShop(ConnectionPool pool, ShopState state, BufferedReader in, PrintStream out) {
+		this._pool = pool;
+		this._statements = null;
+		this._state = state;
+		this._input = in;
+		// null for sessions that never prompt, such as --intake
+		this.in = in == null ? null : new PromptReader(in);
+		this.out = out;
+		this.err = out;
+	}
+
+	/**
+	 * Method to return the state shared by the sessions of the process.
+	 */
+	ShopState state() {
+		return this._state;
+	}
+
+	/**
+	 * Method to build the connection URL of a local database.
+	 *
+	 * @param dbname the database name
+	 * @param dbport the port postgres listens on
+	 * @return the JDBC connection URL
+	 */
+	static String url(String dbname, String dbport) {
+		// prepareThreshold=1 makes the driver switch to a named server-side
+		// plan on the first execution of a cached prepared statement, and
+		// reWriteBatchedInserts sends a JDBC batch of inserts as multi-row inserts
+		return "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?prepareThreshold=1&reWriteBatchedInserts=true";
+	}
+
+	/**
+	 * Method to return the connection to run statements on.  In server mode
+	 * a connection is borrowed from the pool on first use and kept until
+	 * releaseConnection is called; a read-only operation borrows a replica
+	 * the same way.
+	 *
+	 * @return the physical connection
+	 * @throws java.sql.SQLException when no connection could be borrowed
+	 */
+	Connection connection() throws SQLException {
+		awaitStartup ();
+		if (this._cancelled)
+			throw new SQLException("Operation cancelled");
+		if (this._routed && this._replica == null){
+			this._replica = this._state.replicas == null ? null : this._state.replicas.borrow();
+			if (this._replica == null){
+				// none is within the staleness bound; the rest of the operation stays on the primary
+				this._routed = false;
+			}else{
+				this._primaryConnection = this._connection;
+				this._primaryStatements = this._statements;
+				this._connection = this._replica.entry.connection;
+				this._statements = this._replica.entry.statements;
+				return this._connection;
+			}//end if
+		}//end if
+		if (this._connection == null && this._pool != null){
+			this._lease = this._pool.borrow();
+			this._connection = this._lease.connection;
+			this._statements = this._lease.statements;
+		}//end if
+		return this._connection;
+	}//end connection
+
+	/**
+	 * Method to give the borrowed connections back to their pools.  The
+	 * connection of a session that is not pooled is kept.
+	 */
+	public void releaseConnection() {
+		releaseReplica ();
+		if (this._lease != null){
+			this._pool.release(this._lease);
+			this._lease = null;
+			this._connection = null;
+			this._statements = null;
+		}//end if
+	}//end releaseConnection
+
+	/**
+	 * Method to run the statements of this session on a read replica until
+	 * routeToPrimary is called.  Stays on the primary when the process has
+	 * no replicas or none is within the staleness bound.
+	 */
+	void routeToReplica() {
+		this._routed = this._state.replicas != null;
+	}//end routeToReplica
+
+	/**
+	 * Method to give the replica back and run on the primary again.
+	 */
+	void routeToPrimary() {
+		this._routed = false;
+		releaseReplica ();
+	}//end routeToPrimary
+
+	/**
+	 * Method to tell whether the statements run on a replica, whose rows
+	 * may be older than what the primary has.
+	 */
+	boolean onReplica() {
+		return this._replica != null;
+	}
+
+	private void releaseReplica() {
+		if (this._replica == null) return;
+		this._connection = this._primaryConnection;
+		this._statements = this._primaryStatements;
+		this._primaryConnection = null;
+		this._primaryStatements = null;
+		this._replica.release();
+		this._replica = null;
+	}//end releaseReplica
+
+	/**
+	 * Method to stop the operation running on this session from another
+	 * thread.  The statement in flight is cancelled on the server and every
+	 * later statement fails until clearCancel is called.
+	 */
+	public void cancel() {
+		this._cancelled = true;
+		Statement stmt = this._running;
+		if (stmt != null){
+			try{
+				stmt.cancel ();
+			}catch (SQLException e){
+				// ignored.
+			}//end try
+		}//end if
+	}//end cancel
+
+	void clearCancel() {
+		this._cancelled = false;
+		this._running = null;
+	}
+
+	/**
+	 * Method to note that the statement in flight has completed or failed
+	 * and record it in the query stats.
+	 */
+	void finished (String sql, long start, long rows, long roundTrips) {
+		this._running = null;
+		STATS.recordStatement (sql, start, rows, roundTrips);
+	}
+
+	private Statement createStatement () throws SQLException {
+		Statement stmt = connection().createStatement ();
+		this._running = stmt;
+		return stmt;
 	}
 	
 	/**
@@ -61,14 +395,20 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			// creates a statement object
+			Statement stmt = createStatement ();
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+			// issues the update instruction
+			rowCount = stmt.executeUpdate (sql);
 
-		// close the instruction
-	    stmt.close ();
+			// close the instruction
+		    stmt.close ();
+		}finally{
+			finished (QueryStats.shape (sql), start, rowCount, 1);
+		}//end try
 	}//end executeUpdate
 
 	/**
@@ -81,8 +421,19 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			rowCount = printResult (query);
+			return rowCount;
+		}finally{
+			finished (QueryStats.shape (query), start, rowCount, 1);
+		}//end try
+	}
+
+	private int printResult (String query) throws SQLException {
 		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		Statement stmt = createStatement ();
 
 		//issues the query instruction
 		ResultSet rs = stmt.executeQuery (query);
@@ -96,23 +447,37 @@ public class MechanicShop{
 		int rowCount = 0;
 		
 		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
+		ReportWriter report = ReportWriter.toStream (ReportWriter.Format.TEXT, this.out);
+		try{
+			report.header (columnNames (rsmd), displaySizes (rsmd));
+			String[] row = new String[numCol];
+			while (rs.next()){
+				for (int i=1; i<=numCol; ++i)
+					row[i - 1] = rs.getString (i);
+				report.row (row);
+				++rowCount;
+			}//end while
+			report.close ();
+		}catch (IOException e){
+			throw new SQLException (e.getMessage (), e);
+		}//end try
 		stmt.close ();
 		return rowCount;
 	}
+
+	private static String[] columnNames (ResultSetMetaData rsmd) throws SQLException {
+		String[] columns = new String[rsmd.getColumnCount ()];
+		for (int i=1; i<=columns.length; ++i)
+			columns[i - 1] = rsmd.getColumnName (i);
+		return columns;
+	}
+
+	private static int[] displaySizes (ResultSetMetaData rsmd) throws SQLException {
+		int[] sizes = new int[rsmd.getColumnCount ()];
+		for (int i=1; i<=sizes.length; ++i)
+			sizes[i - 1] = rsmd.getColumnDisplaySize (i);
+		return sizes;
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -124,8 +489,20 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			List<List<String>> result = returnResult (query);
+			rowCount = result.size ();
+			return result;
+		}finally{
+			finished (QueryStats.shape (query), start, rowCount, 1);
+		}//end try
+	}//end executeQueryAndReturnResult
+
+	private List<List<String>> returnResult (String query) throws SQLException { 
 		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
+		Statement stmt = createStatement (); 
 		
 		//issues the query instruction 
 		ResultSet rs = stmt.executeQuery (query); 
@@ -149,7 +526,7 @@ public class MechanicShop{
 		}//end while 
 		stmt.close (); 
 		return result; 
-	}//end executeQueryAndReturnResult
+	}//end returnResult
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -160,25 +537,291 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			//creates a statement object
+			Statement stmt = createStatement ();
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery (query);
 
-		int rowCount = 0;
+			int count = 0;
 
-		//iterates through the result set and count nuber of results.
-		while(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			while(rs.next()){
+				count++;
+			}//end while
+			stmt.close ();
+			rowCount = count;
+			return rowCount;
+		}finally{
+			finished (QueryStats.shape (query), start, rowCount, 1);
+		}//end try
 	}
-	
+
+	/**
+	 * Method to look up the prepared statement for the given SQL text.  The
+	 * statement is prepared on first use and kept open on the connection so
+	 * that later calls reuse the same server-side plan.
+	 *
+	 * @param sql the SQL text with '?' placeholders
+	 * @return the cached prepared statement
+	 * @throws java.sql.SQLException when failed to prepare the statement
+	 */
+	public PreparedStatement prepare (String sql) throws SQLException {
+		connection();
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt == null || stmt.isClosed()){
+			stmt = connection().prepareStatement (sql);
+			this._statements.put(sql, stmt);
+		}//end if
+		this._running = stmt;
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to start a pipeline of statements sent in one network flush on
+	 * this session's connection.
+	 *
+	 * @return the empty pipeline
+	 */
+	public Pipeline pipeline () {
+		return new Pipeline (this);
+	}
+
+	/**
+	 * Method to bind the given values to the placeholders of a prepared
+	 * statement, in order.  Each value is bound with the setter matching its
+	 * Java type so the server receives the column's real type.
+	 *
+	 * @param stmt the prepared statement
+	 * @param params the values for the placeholders
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+		stmt.clearParameters ();
+		for (int i = 0; i < params.length; ++i){
+			Object param = params[i];
+			if (param == null)
+				stmt.setNull (i + 1, java.sql.Types.NULL);
+			else if (param instanceof Integer)
+				stmt.setInt (i + 1, (Integer) param);
+			else if (param instanceof Long)
+				stmt.setLong (i + 1, (Long) param);
+			else if (param instanceof java.sql.Date)
+				stmt.setDate (i + 1, (java.sql.Date) param);
+			else if (param instanceof String)
+				stmt.setString (i + 1, (String) param);
+			else
+				stmt.setObject (i + 1, param);
+		}//end for
+	}//end bind
+
+	/**
+	 * Method to execute a parameterized update SQL statement through the
+	 * prepared statement cache.
+	 *
+	 * @param sql the SQL string with '?' placeholders
+	 * @param params the values for the placeholders
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			PreparedStatement stmt = prepare (sql);
+			bind (stmt, params);
+			rowCount = stmt.executeUpdate ();
+			return rowCount;
+		}finally{
+			finished (sql, start, rowCount, 1);
+		}//end try
+	}//end executeUpdate
+
+	/**
+	 * Method to execute a parameterized query through the prepared statement
+	 * cache and return the number of results.
+	 *
+	 * @param query the query string with '?' placeholders
+	 * @param params the values for the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			PreparedStatement stmt = prepare (query);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+
+			int count = 0;
+			while(rs.next()){
+				count++;
+			}//end while
+			rs.close ();
+			rowCount = count;
+			return rowCount;
+		}finally{
+			finished (query, start, rowCount, 1);
+		}//end try
+	}
+
+	/**
+	 * Method to execute a parameterized query through the prepared statement
+	 * cache and return the results as a list of records.
+	 *
+	 * @param query the query string with '?' placeholders
+	 * @param params the values for the placeholders
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			PreparedStatement stmt = prepare (query);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+
+			int numCol = rs.getMetaData ().getColumnCount ();
+			List<List<String>> result  = new ArrayList<List<String>>();
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(numCol);
+				for (int i=1; i<=numCol; ++i)
+					record.add(rs.getString (i));
+				result.add(record);
+			}//end while
+			rs.close ();
+			rowCount = result.size ();
+			return result;
+		}finally{
+			finished (query, start, rowCount, 1);
+		}//end try
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a parameterized query through the prepared statement
+	 * cache and hand its rows to the handler one at a time.  The rows are
+	 * fetched from a server-side cursor FETCH_SIZE at a time and copied into
+	 * one reused buffer, so memory use does not grow with the result size.
+	 * The handler must not keep the array it is given.
+	 *
+	 * @param query the query string with '?' placeholders
+	 * @param handler receives the column names and sizes and then each row
+	 * @param params the values for the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws java.io.IOException when the handler failed to write a row
+	 */
+	public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException, IOException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		Connection conn = connection ();
+		boolean autoCommit = conn.getAutoCommit ();
+		// the driver only uses a cursor inside a transaction
+		conn.setAutoCommit (false);
+		try{
+			PreparedStatement stmt = prepare (query);
+			bind (stmt, params);
+			stmt.setFetchSize (FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery ();
+
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			handler.header (columnNames (rsmd), displaySizes (rsmd));
+
+			String[] row = new String[numCol];
+			int count = 0;
+			while (rs.next()){
+				for (int i=1; i<=numCol; ++i)
+					row[i - 1] = rs.getString (i);
+				handler.row (row);
+				++count;
+			}//end while
+			rs.close ();
+			rowCount = count;
+			return rowCount;
+		}finally{
+			// ends the read-only transaction opened for the cursor
+			if (autoCommit){
+				conn.rollback ();
+				conn.setAutoCommit (true);
+			}//end if
+			// one round trip for the first batch and one per further FETCH_SIZE rows
+			finished (query, start, rowCount, 1 + Math.max(0, rowCount) / FETCH_SIZE);
+		}//end try
+	}//end executeQueryAndStream
+
+	/**
+	 * Method to execute a parameterized statement that returns a single
+	 * integer, such as the status code of a guarded insert, through the
+	 * prepared statement cache.
+	 *
+	 * @param query the statement string with '?' placeholders
+	 * @param params the values for the placeholders
+	 * @return the first column of the first row, or -1 if there is no row
+	 * @throws java.sql.SQLException when failed to execute the statement
+	 */
+	public int executeQueryAndReturnInt (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = -1;
+		try{
+			PreparedStatement stmt = prepare (query);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			rowCount = 0;
+			int value = -1;
+			if (rs.next()){
+				value = rs.getInt (1);
+				rowCount = 1;
+			}//end if
+			rs.close ();
+			return value;
+		}finally{
+			finished (query, start, rowCount, 1);
+		}//end try
+	}//end executeQueryAndReturnInt
+
+	/**
+	 * Method to run the statement of an operation that took an id from the
+	 * given sequence.  When that was the last id of its block, the next block
+	 * is reserved in the same pipeline, so the operation still costs one
+	 * round trip and the next one needs no reservation of its own.
+	 *
+	 * @param sequence the sequence the operation's id came from
+	 * @param sql the SQL string with '?' placeholders
+	 * @param params the values for the placeholders
+	 * @return the first column of the first row, or -1 if there is none
+	 * @throws java.sql.SQLException when the statement failed
+	 */
+	public int executeAndRefill (String sequence, String sql, Object... params) throws SQLException {
+		Pipeline pipeline = pipeline ();
+		Pipeline.Result result = pipeline.add (sql, params);
+		this._state.ids.refill (pipeline, sequence);
+		pipeline.sync ();
+		return result.getInt ();
+	}//end executeAndRefill
+
+	/**
+	 * Method to fetch the next value from sequence.  Values are handed out
+	 * from blocks reserved by the IdAllocator, so the DBMS is only queried
+	 * when the current block is used up.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return next value of a sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int getNextSeqVal(String sequence) throws SQLException {
+		return this._state.ids.next(this, sequence);
+	}
+
 	/**
 	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
+	 * method returns the last value handed out by getNextSeqVal, or
+	 * issues the query to the DBMS and returns the current 
 	 * value of sequence used for autogenerated keys
 	 * 
 	 * @param sequence name of the DB sequence
@@ -187,18 +830,82 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
+		int last = this._state.ids.current(sequence);
+		if (last >= 0) return last;
+
+		Statement stmt = createStatement ();
 		
 		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		int value = rs.next() ? rs.getInt(1) : -1;
+		stmt.close ();
+		return value;
+	}
+
+	/**
+	 * Method to look up a row by primary key through the given cache,
+	 * reading it from the DBMS on a miss.  Rows read from a replica are not
+	 * cached.
+	 *
+	 * @param cache the cache of the table
+	 * @param query the query selecting the row by key
+	 * @param key the primary key
+	 * @return the row, or null if there is no such row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	private <K> List<String> find (EntityCache<K> cache, String query, K key) throws SQLException {
+		long generation = cache.generation ();
+		List<String> row = cache.get (key);
+		if (row == null){
+			List<List<String>> rows = executeQueryAndReturnResult (query, key);
+			if (rows.isEmpty ()) return null;
+			row = rows.get (0);
+			// a replica may be behind invalidations the cache has already had
+			if (!onReplica ())
+				cache.put (key, row, generation);
+		}//end if
+		return row;
+	}//end find
+
+	public List<String> findCustomer (int id) throws SQLException {
+		return find (this._state.customers, "SELECT * FROM customer WHERE id = ?;", id);
+	}
+
+	public List<String> findMechanic (int id) throws SQLException {
+		return find (this._state.mechanics, "SELECT * FROM mechanic WHERE id = ?;", id);
 	}
 
+	public List<String> findCar (String vin) throws SQLException {
+		return find (this._state.cars, "SELECT * FROM car WHERE vin = ?;", vin);
+	}
+
+	/**
+	 * Method to generate a VIN that is not in the car table.  The database is
+	 * only queried when the in-memory filter reports a possible match.
+	 *
+	 * @return a free VIN
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public String nextFreeVin() throws SQLException {
+		while (true){
+			String vin = this._state.vins.next();
+			if (!this._state.vins.mightContain(vin) || executeQuery("SELECT 1 FROM car WHERE vin = ?;", vin) == 0)
+				return vin;
+		}//end while
+	}//end nextFreeVin
+
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to close the physical connection if it is open.  A pooled
+	 * connection is given back to the pool instead.
 	 */
 	public void cleanup(){
+		if (this._pool != null){
+			releaseConnection ();
+			return;
+		}//end if
 		try{
+			for (PreparedStatement stmt : this._statements.values())
+				stmt.close ();
+			this._statements.clear ();
 			if (this._connection != null){
 				this._connection.close ();
 			}//end if
@@ -213,10 +920,40 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
+		if (args.length >= 1 && args[0].equals("--serve")) {
+			ShopServer.main(args);
+			return;
+		}//end if
+		if (args.length >= 1 && args[0].equals("--import")) {
+			DataImporter.main(args);
+			return;
+		}//end if
+		if (args.length >= 1 && args[0].equals("--generate")) {
+			DataGenerator.main(args);
+			return;
+		}//end if
+		if (args.length >= 1 && args[0].equals("--intake")) {
+			BatchIntake.main(args);
+			return;
+		}//end if
+		if (args.length >= 1 && args[0].equals("--publish")) {
+			ChangePublisher.main(args);
+			return;
+		}//end if
 		if (args.length != 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user>\n" +
+		            "       java [-classpath <classpath>] " + MechanicShop.class.getName () +
+		            " --serve <dbname> <port> <user> <listen port> [pool size]\n" +
+		            "       java [-classpath <classpath>] " + MechanicShop.class.getName () +
+		            " --import <dbname> <port> <user> <data dir>\n" +
+		            "       java [-classpath <classpath>] " + MechanicShop.class.getName () +
+		            " --generate <sample dir> <out dir> <scale> [seed] [threads]\n" +
+		            "       java [-classpath <classpath>] " + MechanicShop.class.getName () +
+		            " --intake <dbname> <port> <user> <requests|closures> <file or -> [rows per commit]\n" +
+		            "       java [-classpath <classpath>] " + MechanicShop.class.getName () +
+		            " --publish <dbname> <port> <user> <file or tcp://host:port> [consumer] [batch size]");
 			return;
 		}//end if
 		
@@ -225,61 +962,22 @@ public class MechanicShop{
 		try{
 			System.out.println("(1)");
 			
-			try {
-				Class.forName("org.postgresql.Driver");
-			}catch(Exception e){
-
-				System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
-				e.printStackTrace();
-				return;
-			}
-			
 			System.out.println("(2)");
 			String dbname = args[0];
 			String dbport = args[1];
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
-			
-			boolean keepon = true;
-			while(keepon){
-				System.out.println("MAIN MENU");
-				System.out.println("---------");
-				System.out.println("1. AddCustomer");
-				System.out.println("2. AddMechanic");
-				System.out.println("3. AddCar");
-				System.out.println("4. InsertServiceRequest");
-				System.out.println("5. CloseServiceRequest");
-				System.out.println("6. ListCustomersWithBillLessThan100");
-				System.out.println("7. ListCustomersWithMoreThan20Cars");
-				System.out.println("8. ListCarsBefore1995With50000Milles");
-				System.out.println("9. ListKCarsWithTheMostServices");
-				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
-				
-				/*
-				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
-				 */
-				switch (readChoice()){
-					case 1: AddCustomer(esql); break;
-					case 2: AddMechanic(esql); break;
-					case 3: AddCar(esql); break;
-					case 4: InsertServiceRequest(esql); break;
-					case 5: CloseServiceRequest(esql); break;
-					case 6: ListCustomersWithBillLessThan100(esql); break;
-					case 7: ListCustomersWithMoreThan20Cars(esql); break;
-					case 8: ListCarsBefore1995With50000Milles(esql); break;
-					case 9: ListKCarsWithTheMostServices(esql); break;
-					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
-				}
-			}
+			esql.runMenu ();
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
 		}finally{
 			try{
-				if(esql != null) {
+				// leaving before the connection is ready does not wait for it
+				if(esql != null && esql.connected()) {
+					System.out.println(esql._state.stats());
 					System.out.print("Disconnecting from database...");
+					esql._state.close ();
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
 				}//end if				
@@ -289,16 +987,189 @@ public class MechanicShop{
 		}
 	}
 
-	public static int readChoice() {
+	/**
+	 * Method to show the main menu and run the chosen operations until the
+	 * user exits or the input ends.  In server mode the pooled connection is
+	 * given back after every operation.
+	 *
+	 * @throws java.lang.Exception when an operation fails unexpectedly
+	 */
+	public void runMenu() throws Exception {
+		MechanicShop esql = this;
+		boolean keepon = true;
+		boolean timed = LAUNCHED_AT == 0 || this._pool != null;
+		while(keepon){
+			out.println("MAIN MENU");
+			out.println("---------");
+			for (int i = 0; i < OPERATIONS.length; i++)
+				out.println((i + 1) + ". " + OPERATIONS[i]);
+			out.println(EXIT + ". < EXIT");
+			
+			/*
+			 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
+			 */
+			if (!timed){
+				err.println("first prompt after " + (System.currentTimeMillis() - LAUNCHED_AT) + " ms");
+				timed = true;
+			}//end if
+			int choice = readChoice(esql);
+			try{
+				if (choice == EXIT)
+					keepon = false;
+				else if (choice >= 6 && choice <= 10)
+					runReport(choice);
+				else
+					runOperation(esql, choice);
+			}finally{
+				releaseConnection ();
+			}
+			out.flush();
+		}
+	}//end runMenu
+
+	/**
+	 * Method to run the menu operation of the given choice and record its
+	 * latency.  Unknown choices do nothing.
+	 *
+	 * @param esql the session to run it on
+	 * @param choice the menu choice
+	 * @throws java.lang.Exception when the operation fails unexpectedly
+	 */
+	static void runOperation(MechanicShop esql, int choice) throws Exception {
+		if (choice < 1 || choice > OPERATIONS.length) return;
+		esql.awaitStartup ();
+		// the reports and the analytics summary only read, and may see data
+		// up to the replica staleness bound old
+		boolean readOnly = (choice >= 6 && choice <= 10) || choice == 13;
+		if (readOnly)
+			esql.routeToReplica ();
+		long start = STATS.beginOperation(OPERATIONS[choice - 1]);
+		try{
+			switch (choice){
+				case 1: AddCustomer(esql); break;
+				case 2: AddMechanic(esql); break;
+				case 3: AddCar(esql); break;
+				case 4: InsertServiceRequest(esql); break;
+				case 5: CloseServiceRequest(esql); break;
+				case 6: ListCustomersWithBillLessThan100(esql); break;
+				case 7: ListCustomersWithMoreThan20Cars(esql); break;
+				case 8: ListCarsBefore1995With50000Milles(esql); break;
+				case 9: ListKCarsWithTheMostServices(esql); break;
+				case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
+				case 11: ReportOutput(esql); break;
+				case 12: BatchIntake(esql); break;
+				case 13: AnalyticsSummary(esql); break;
+				case 14: AssignServiceRequest(esql); break;
+				case 15: Search(esql); break;
+			}
+		}finally{
+			STATS.endOperation (start);
+			if (readOnly)
+				esql.routeToPrimary ();
+		}
+	}//end runOperation
+
+	/**
+	 * Method to run a report on a worker thread so that a long one does not
+	 * hang the terminal.  Once its query has run for a second, pressing Enter
+	 * cancels it; it is also cancelled after -Dshop.reportTimeoutSeconds when
+	 * that is set.
+	 *
+	 * @param choice the menu choice of the report
+	 * @throws java.lang.Exception when the report fails unexpectedly
+	 */
+	private void runReport(int choice) throws Exception {
+		if (this._async == null)
+			this._async = new MechanicShopAsync(this);
+		CompletableFuture<Void> report = this._async.runOperation(this, choice, REPORT_TIMEOUT_MILLIS);
+		long hintAt = 0;
+		boolean hinted = false;
+		while (!report.isDone()){
+			try{
+				report.get(100, TimeUnit.MILLISECONDS);
+			}catch (TimeoutException e){
+				// the report reads its form and page choices from the terminal
+				// between its queries
+				if (this._running == null){
+					hintAt = 0;
+					continue;
+				}//end if
+				if (hintAt == 0)
+					hintAt = System.currentTimeMillis() + 1000;
+				if (!hinted && System.currentTimeMillis() >= hintAt){
+					err.println("\t(press Enter to cancel the report)");
+					hinted = true;
+				}else if (hinted && lineTyped()){
+					report.cancel(false);
+				}//end if
+			}catch (ExecutionException | CancellationException e){
+				// reported below
+			}//end try
+		}//end while
+		// the worker keeps using the connection until the statement has stopped
+		MechanicShopAsync.waitUntilIdle(this);
+		// a cancelled report leaves the flag set, which would fail the next
+		// operation run on the terminal thread
+		clearCancel();
+		if (report.isCancelled())
+			err.println("\tReport cancelled");
+		else if (report.isCompletedExceptionally()){
+			try{
+				report.join();
+			}catch (CompletionException e){
+				if (e.getCause() instanceof TimeoutException)
+					err.println("\tReport timed out");
+				else if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				else
+					throw e;
+			}//end try
+		}//end if
+	}//end runReport
+
+	/**
+	 * Method to consume a line typed at the terminal if all of it, Enter
+	 * included, is already there.  Never blocks: only what is ready is
+	 * read, and a partial line is put back for the next prompt.  Reads
+	 * _input, not in, which would give the worker's connection back.
+	 *
+	 * @return whether a line was consumed
+	 */
+	private boolean lineTyped() throws IOException {
+		// the report is reading a prompt of its own
+		if (!this._inputLock.tryLock()) return false;
+		try{
+			this._input.mark(CANCEL_PEEK);
+			for (int i = 0; i < CANCEL_PEEK - 1 && this._input.ready(); i++){
+				int c = this._input.read();
+				if (c == '\n' || c < 0) return true;
+				if (c == '\r'){
+					// a CR LF line end is consumed whole
+					this._input.mark(1);
+					if (!this._input.ready() || this._input.read() != '\n')
+						this._input.reset();
+					return true;
+				}//end if
+			}//end for
+			this._input.reset();
+			return false;
+		}finally{
+			this._inputLock.unlock();
+		}//end try
+	}//end lineTyped
+
+	public static int readChoice(MechanicShop esql) {
 		int input;
 		// returns only if a correct value is given.
 		do {
-			System.out.print("Please make your choice: ");
+			esql.out.print("Please make your choice: ");
 			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+				String line = esql.in.readLine();
+				if (line == null) return EXIT; // end of input
+				input = Integer.parseInt(line);
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid!");
+				esql.out.println("Your input is invalid!");
 				continue;
 			}//end try
 		}while (true);
@@ -327,120 +1198,94 @@ try{
 
 	public static void AddCustomer(MechanicShop esql){//1
 	    try{
-			int idIn  = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(id) FROM customer;").get(0).get(0)) + 1;
-			System.out.print("\tnext id: " + idIn +"\n");
-			System.out.print("\tEnter fname: $");
-			String fnameIn = in.readLine();
-			System.out.print("\tEnter lname: $");
-			String lnameIn = in.readLine();
-			System.out.print("\tEnter phone ie. (###)###-####: $");
-			String phoneIn = in.readLine();
-			System.out.print("\tEnter address ie. street city: $");
-			String addressIn = in.readLine();
-
-			String sql = "INSERT INTO customer VALUES ('" + idIn + "', '" + fnameIn + "', '" + lnameIn + "', '" + phoneIn + "', '" + addressIn + "');";
+			int idIn  = esql.getNextSeqVal("customer_id_seq");
+			esql.out.print("\tnext id: " + idIn +"\n");
+			esql.out.print("\tEnter fname: $");
+			String fnameIn = esql.in.readLine();
+			esql.out.print("\tEnter lname: $");
+			String lnameIn = esql.in.readLine();
+			esql.out.print("\tEnter phone ie. (###)###-####: $");
+			String phoneIn = esql.in.readLine();
+			esql.out.print("\tEnter address ie. street city: $");
+			String addressIn = esql.in.readLine();
+
+			String sql = "INSERT INTO customer VALUES (?, ?, ?, ?, ?);";
 	
-			esql.executeUpdate(sql);
+			esql.executeAndRefill("customer_id_seq", sql, idIn, fnameIn, lnameIn, phoneIn, addressIn);
+			esql._state.customers.invalidate(idIn);
+			esql._state.customerSearch.add(String.valueOf(idIn), fnameIn + " " + lnameIn, phoneIn, addressIn);
 
 			
 			
 			}catch(Exception e)
 			{
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 			}		
 	}
 	
 	public static void AddMechanic(MechanicShop esql){//2
 		try{
-			int idIn  = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(id) FROM mechanic;").get(0).get(0)) + 1;
-			System.out.print("\tnext id: " + idIn +"\n");
-			System.out.print("\tEnter fname: $");
-			String fnameIn = in.readLine();
-			System.out.print("\tEnter lname: $");
-			String lnameIn = in.readLine();
-			System.out.print("\tEnter experience ie. #: $");
-			String experienceIn = in.readLine();
-
-			String sql = "INSERT INTO mechanic VALUES ('" + idIn + "', '" + fnameIn + "', '" + lnameIn + "', '" + experienceIn +  "');";
+			int idIn  = esql.getNextSeqVal("mechanic_id_seq");
+			esql.out.print("\tnext id: " + idIn +"\n");
+			esql.out.print("\tEnter fname: $");
+			String fnameIn = esql.in.readLine();
+			esql.out.print("\tEnter lname: $");
+			String lnameIn = esql.in.readLine();
+			esql.out.print("\tEnter experience ie. #: $");
+			int experienceIn = Integer.parseInt(esql.in.readLine());
+
+			String sql = "INSERT INTO mechanic VALUES (?, ?, ?, ?);";
 	
-			esql.executeUpdate(sql);
+			esql.executeAndRefill("mechanic_id_seq", sql, idIn, fnameIn, lnameIn, experienceIn);
+			esql._state.mechanics.invalidate(idIn);
+			esql._state.scheduler.addMechanic(idIn, experienceIn);
 
 			
 			
 			}catch(Exception e)
 			{
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 			}		
 	}
 	
 	public static void AddCar(MechanicShop esql){//3
 		try{
 			
-			String vinIn = "";
-			boolean match = true;
-			while(match) {
-				//generate a random string of uppercase letters of length 6
-				int leftLimit = 65; // letter 'A'
-    			int rightLimit = 90; // letter 'Z'
-    			int targetStringLength = 6;
-    			Random random = new Random();
-    			StringBuilder buffer = new StringBuilder(targetStringLength);
-    			for (int i = 0; i < targetStringLength; i++) {
-        			int randomLimitedInt = leftLimit + (int) 
-          			(random.nextFloat() * (rightLimit - leftLimit + 1));
-        			buffer.append((char) randomLimitedInt);
-    			}
-    			String letters = buffer.toString();
- 
-				//geterate random string of numbers of length 10
-				leftLimit = 49; // letter '1'
-    			rightLimit = 57; // letter '9'
-    			targetStringLength = 10;
-    			random = new Random();
-    			buffer = new StringBuilder(targetStringLength);
-    			for (int i = 0; i < targetStringLength; i++) {
-        			int randomLimitedInt = leftLimit + (int) 
-          			(random.nextFloat() * (rightLimit - leftLimit + 1));
-					buffer.append((char) randomLimitedInt);
-					if(i == 0)
-						leftLimit--; // cannot start with 0
-    			}
-				String numbers = buffer.toString();
-				
-				//concatonate them so that first comes the letters then the numbers
-				vinIn = letters + numbers;
-
-
-				String query = "SELECT * FROM car WHERE vin = '" + vinIn + "';";
-				int rowCount = esql.executeQuery(query);
-				if(rowCount == 0)
-					match = false;
-			}
-			int ownership_idIn  = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(ownership_id) FROM owns;").get(0).get(0)) + 1;
-			System.out.print("\tnext ownership_id: $" + ownership_idIn +"\n");
-			System.out.print("\tnext vin: $" + vinIn +"\n");
-			System.out.print("\tEnter customer_id: $");
-			String customer_idIn = in.readLine();
-			System.out.print("\tEnter make: $");
-			String makeIn = in.readLine();
-			System.out.print("\tEnter model: $");
-			String modelIn = in.readLine();
-			System.out.print("\tEnter year ie. ####: $");
-			String yearIn = in.readLine();
-
-			String checkQuery1 = "SELECT * FROM customer WHERE id = '" + customer_idIn + "';";
-			int rowCount1 = esql.executeQuery(checkQuery1);
-
-			if(rowCount1 == 1) {
-				String sql = "INSERT INTO car VALUES ('" + vinIn + "', '" + makeIn + "', '" + modelIn + "', '" + yearIn +  "');";
-				esql.executeUpdate(sql);
-
-				sql = "INSERT INTO owns VALUES ('" + ownership_idIn + "', '" + customer_idIn + "', '" + vinIn + "');";
-				esql.executeUpdate(sql);
+			String vinIn = esql.nextFreeVin();
+			int ownership_idIn  = esql.getNextSeqVal("owns_ownership_id_seq");
+			esql.out.print("\tnext ownership_id: $" + ownership_idIn +"\n");
+			esql.out.print("\tnext vin: $" + vinIn +"\n");
+			esql.out.print("\tEnter customer_id: $");
+			int customer_idIn = Integer.parseInt(esql.in.readLine());
+			esql.out.print("\tEnter make: $");
+			String makeIn = esql.in.readLine();
+			esql.out.print("\tEnter model: $");
+			String modelIn = esql.in.readLine();
+			esql.out.print("\tEnter year ie. ####: $");
+			int yearIn = Integer.parseInt(esql.in.readLine());
+
+			// checks the customer and inserts the car and its owner in one
+			// statement; returns 0 on success, 1 for an unknown customer and
+			// 2 when another desk has taken the VIN since it was generated
+			String sql = "WITH c AS (SELECT id FROM customer WHERE id = ?), " +
+				"new_car AS (INSERT INTO car SELECT ?, ?, ?, ? FROM c ON CONFLICT (vin) DO NOTHING RETURNING vin), " +
+				"new_owns AS (INSERT INTO owns SELECT ?, c.id, new_car.vin FROM c, new_car RETURNING ownership_id) " +
+				"SELECT CASE WHEN EXISTS (SELECT 1 FROM new_owns) THEN 0 " +
+				"WHEN NOT EXISTS (SELECT 1 FROM c) THEN 1 ELSE 2 END;";
+			int status = esql.executeAndRefill("owns_ownership_id_seq", sql, customer_idIn, vinIn, makeIn, modelIn, yearIn, ownership_idIn);
+			while(status == 2) {
+				esql._state.vins.add(vinIn);
+				vinIn = esql.nextFreeVin();
+				esql.out.print("\tvin taken, using: $" + vinIn +"\n");
+				status = esql.executeQueryAndReturnInt(sql, customer_idIn, vinIn, makeIn, modelIn, yearIn, ownership_idIn);
 			}
-			else {
-				System.out.print("\tError (customer_id)\n");
+			if(status == 0) {
+				esql._state.vins.add(vinIn);
+				esql._state.cars.invalidate(vinIn);
+				esql._state.carSearch.add(vinIn, vinIn, makeIn + " " + modelIn, String.valueOf(yearIn));
 			}
+			else
+				esql.out.print("\tError (customer_id)\n");
 
 			
 
@@ -448,42 +1293,41 @@ try{
 			
 			}catch(Exception e)
 			{
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 			}		
 	}
 	
 	public static void InsertServiceRequest(MechanicShop esql){//4
 		try{
-			int ridIn  = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(rid) FROM service_request;").get(0).get(0)) + 1;
-			System.out.print("\tnext rid: " + ridIn +"\n");
-			System.out.print("\tEnter customer_id: $");
-			String customer_idIn = in.readLine();
-			System.out.print("\tcar_vin: $");
-			String car_vinIn = in.readLine();
-			System.out.print("\tEnter date ie. yyyy-mm-dd: $");
-			String dateIn = in.readLine();
-			System.out.print("\tEnter odometer: $");
-			String odometerIn = in.readLine();
-			System.out.print("\tEnter complain: $");
-			String complainIn = in.readLine();
-
-			String checkQuery1 = "SELECT * FROM customer WHERE id = '" + customer_idIn + "';";
-			int rowCount1 = esql.executeQuery(checkQuery1);
-			String checkQuery2 = "SELECT * FROM car WHERE vin = '" + car_vinIn + "';";
-			int rowCount2 = esql.executeQuery(checkQuery2);
-
-			if(rowCount1 == 1){
-				if(rowCount2 == 1) {
-					String sql = "INSERT INTO service_request VALUES ('" + 
-					ridIn + "', '" + customer_idIn + "', '" + car_vinIn + "', '" + dateIn +  "', '" + odometerIn + "', '" + complainIn + "');";
-					//System.out.print(sql+"\n");
-					esql.executeUpdate(sql);
-				}
-				else
-					System.out.print("\tError (car_vin)\n");
-			} 
-			else
-				System.out.print("\tError (customer_id)\n");
+			int ridIn  = esql.getNextSeqVal("service_request_rid_seq");
+			esql.out.print("\tnext rid: " + ridIn +"\n");
+			esql.out.print("\tEnter customer_id: $");
+			int customer_idIn = Integer.parseInt(esql.in.readLine());
+			esql.out.print("\tcar_vin: $");
+			String car_vinIn = esql.in.readLine();
+			esql.out.print("\tEnter date ie. yyyy-mm-dd: $");
+			java.sql.Date dateIn = java.sql.Date.valueOf(esql.in.readLine());
+			esql.out.print("\tEnter odometer: $");
+			int odometerIn = Integer.parseInt(esql.in.readLine());
+			esql.out.print("\tEnter complain: $");
+			String complainIn = esql.in.readLine();
+
+			// checks the customer and the car and inserts the request in one
+			// statement; returns 0 on success, 1 for an unknown customer and
+			// 2 for an unknown car
+			String sql = "WITH c AS (SELECT id FROM customer WHERE id = ?), " +
+				"v AS (SELECT vin FROM car WHERE vin = ?), " +
+				"new_request AS (INSERT INTO service_request SELECT ?, c.id, v.vin, ?, ?, ? FROM c, v RETURNING rid) " +
+				"SELECT CASE WHEN EXISTS (SELECT 1 FROM new_request) THEN 0 " +
+				"WHEN NOT EXISTS (SELECT 1 FROM c) THEN 1 ELSE 2 END;";
+			int status = esql.executeAndRefill("service_request_rid_seq", sql, customer_idIn, car_vinIn, ridIn, dateIn, odometerIn, complainIn);
+
+			if(status == 0)
+				esql._state.scheduler.open(ridIn, dateIn.toLocalDate().toEpochDay());
+			else if(status == 1)
+				esql.out.print("\tError (customer_id)\n");
+			else if(status == 2)
+				esql.out.print("\tError (car_vin)\n");
 
 			
 
@@ -491,45 +1335,61 @@ try{
 			
 			}catch(Exception e)
 			{
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 			}		
 	}
 	
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception{//5
 		try{
-			System.out.print("\tEnter rid: $");
-			String ridIn = in.readLine();
-			System.out.print("\tEnter mid: $");
-			String midIn = in.readLine();
-			System.out.print("\tEnter date ie. yyyy-mm-dd: $");
-			String dateIn = in.readLine();
-			System.out.print("\tEnter comment: $");
-			String commentIn = in.readLine();
-			System.out.print("\tEnter bill: $");
-			String billIn = in.readLine();
-
-			String checkQuery1 = "SELECT * FROM service_request WHERE rid = '" + ridIn + "';";
-			int rowCount1 = esql.executeQuery(checkQuery1);
-			String checkQuery2 = "SELECT * FROM closed_request WHERE wid = '" + ridIn + "';";
-			int rowCount2 = esql.executeQuery(checkQuery2);
-			String checkQuery3 = "SELECT * FROM mechanic WHERE id = '" + midIn + "';";
-			int rowCount3 = esql.executeQuery(checkQuery3);
-
-			if(rowCount1 == 1){
-				if(rowCount2 == 0) {
-					if(rowCount3 == 1) {
-						String sql = "INSERT INTO closed_request VALUES ('" + 
-						ridIn + "', '" + ridIn + "', '" + midIn + "', '" + dateIn  + "', '" + commentIn + "', '" + billIn + "');";
-						esql.executeUpdate(sql);
-					}
-					else
-						System.out.print("\tError (mechanic doesn't exist)\n");
-				}
-				else
-					System.out.print("\tError (service_request was already closed)\n");
-			} 
-			else
-				System.out.print("\tError (service_request doesn't exist)\n");
+			esql.out.print("\tEnter rid: $");
+			int ridIn = Integer.parseInt(esql.in.readLine());
+			int assigned = esql._state.scheduler.assignedMechanic(ridIn);
+			int midIn;
+			if(assigned >= 0) {
+				esql.out.print("\tEnter mid, empty for the assigned mechanic " + assigned + ": $");
+				String input = esql.in.readLine().trim();
+				midIn = input.isEmpty() ? assigned : Integer.parseInt(input);
+			}
+			else {
+				esql.out.print("\tEnter mid: $");
+				midIn = Integer.parseInt(esql.in.readLine());
+			}
+			// rejected before the rest of the form; mechanics are always cached
+			if(esql.findMechanic(midIn) == null) {
+				esql.out.print("\tError (mechanic doesn't exist)\n");
+				return;
+			}
+			esql.out.print("\tEnter date ie. yyyy-mm-dd: $");
+			java.sql.Date dateIn = java.sql.Date.valueOf(esql.in.readLine());
+			esql.out.print("\tEnter comment: $");
+			String commentIn = esql.in.readLine();
+			esql.out.print("\tEnter bill: $");
+			int billIn = Integer.parseInt(esql.in.readLine());
+
+			// checks the request and the mechanic and inserts the closure in
+			// one statement; returns 0 on success, 1 for an unknown request,
+			// 2 when it is already closed and 3 for an unknown mechanic.  The
+			// unique rid of closed_request settles two desks closing at once.
+			int widIn = esql.getNextSeqVal("closed_request_wid_seq");
+			String sql = "WITH sr AS (SELECT rid FROM service_request WHERE rid = ?), " +
+				"m AS (SELECT id FROM mechanic WHERE id = ?), " +
+				"new_closed AS (INSERT INTO closed_request SELECT ?, sr.rid, m.id, ?, ?, ? FROM sr, m " +
+				"WHERE NOT EXISTS (SELECT 1 FROM closed_request WHERE rid = sr.rid) ON CONFLICT DO NOTHING RETURNING wid) " +
+				"SELECT CASE WHEN EXISTS (SELECT 1 FROM new_closed) THEN 0 " +
+				"WHEN NOT EXISTS (SELECT 1 FROM sr) THEN 1 " +
+				"WHEN EXISTS (SELECT 1 FROM closed_request WHERE rid = ?) THEN 2 " +
+				"WHEN NOT EXISTS (SELECT 1 FROM m) THEN 3 ELSE 2 END;";
+			int status = esql.executeAndRefill("closed_request_wid_seq", sql, ridIn, midIn, widIn, dateIn, commentIn, billIn, ridIn);
+
+			// closed here or by another desk, it is no longer open either way
+			if(status == 0 || status == 2)
+				esql._state.scheduler.complete(ridIn);
+			if(status == 1)
+				esql.out.print("\tError (service_request doesn't exist)\n");
+			else if(status == 2)
+				esql.out.print("\tError (service_request was already closed)\n");
+			else if(status == 3)
+				esql.out.print("\tError (mechanic doesn't exist)\n");
 
 			
 
@@ -537,82 +1397,284 @@ try{
 			
 			}catch(Exception e)
 			{
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 			}		
 	}
 	
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
-			String query = "SELECT * FROM closed_request WHERE bill < 100;";
+			String query = "SELECT *, wid FROM closed_request WHERE bill < 100%s ORDER BY wid";
 	
-			List<List<String>> result  = esql.executeQueryAndReturnResult(query);
-			printResult(result);
+			printReport(esql, new ReportPager(query, " AND wid > ?::int", 1));
 			
 		}catch(Exception e) {
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 		}		
 	}
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try{
-			String query = "SELECT * FROM customer, (SELECT customer_id, COUNT(customer_id) FROM owns GROUP BY customer_id HAVING COUNT(customer_id) > 20 ) B WHERE customer.id = B.customer_id ORDER BY COUNT;";
+			String query = "SELECT *, COUNT, customer.id FROM customer, (SELECT customer_id, COUNT(customer_id) FROM owns GROUP BY customer_id HAVING COUNT(customer_id) > 20 ) B WHERE customer.id = B.customer_id%s ORDER BY COUNT, customer.id";
 	
-			List<List<String>> result  = esql.executeQueryAndReturnResult(query);
-			printResult(result);
+			printReport(esql, new ReportPager(query, " AND (COUNT, customer.id) > (?::bigint, ?::int)", 2));
 			
 		}catch(Exception e) {
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 		}		
 	}
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try{
-			String query = "SELECT * FROM car, service_request WHERE car.year<'1995' AND service_request.odometer >='50000' AND car.vin = service_request.car_vin;";
+			String query = "SELECT *, service_request.rid FROM car, service_request WHERE car.year < 1995 AND service_request.odometer >= 50000 AND car.vin = service_request.car_vin%s ORDER BY service_request.rid";
 	
-			List<List<String>> result  = esql.executeQueryAndReturnResult(query);
-			printResult(result);
+			printReport(esql, new ReportPager(query, " AND service_request.rid > ?::int", 1));
 			
 		}catch(Exception e) {
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 		}	
 	}
 	
 	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
 		try{
-		 System.out.print("How many cars with the most services would you like to see listed?");
-		 String input = in.readLine();
+		 esql.out.print("How many cars with the most services would you like to see listed?");
+		 String input = esql.in.readLine();
 		 int kinput = Integer.parseInt(input);
-			String query = "SELECT car.make, car.model, count(service_request) from car, service_request where car.vin = car_vin group by car.vin order by count desc limit " + kinput + ";";
+			// car_service_count is maintained by triggers, see V003
+			String query = "SELECT car.make, car.model, car_service_count.service_count AS count, car_service_count.service_count, car_service_count.car_vin FROM car_service_count, car WHERE car.vin = car_service_count.car_vin%s ORDER BY car_service_count.service_count DESC, car_service_count.car_vin DESC";
 	
-			List<List<String>> result  = esql.executeQueryAndReturnResult(query);
-			printResult(result);
+			printReport(esql, new ReportPager(query, " AND (car_service_count.service_count, car_service_count.car_vin) < (?::int, ?)", 2).limit(kinput));
 			
 		}catch(Exception e) {
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 		}		
 		
 	}
 	
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10
 		try{
-			String query = "SELECT id, fname, lname, SUM(bill) FROM customer, service_request, closed_request WHERE customer.id = service_request.customer_id AND service_request.rid = closed_request.rid GROUP BY id ORDER BY SUM(bill) DESC;";
+			// customer_total_bill is maintained by triggers, see V003
+			String query = "SELECT id, fname, lname, customer_total_bill.total_bill AS sum, customer_total_bill.total_bill, customer_total_bill.customer_id FROM customer_total_bill, customer WHERE customer.id = customer_total_bill.customer_id%s ORDER BY customer_total_bill.total_bill DESC, customer_total_bill.customer_id DESC";
 	
-			List<List<String>> result  = esql.executeQueryAndReturnResult(query);
-			printResult(result);
+			printReport(esql, new ReportPager(query, " AND (customer_total_bill.total_bill, customer_total_bill.customer_id) < (?::bigint, ?::int)", 2));
 			
 		}catch(Exception e) {
-			System.err.println (e.getMessage ());
+			esql.err.println (e.getMessage ());
 		}		
 		
 	}
 
 
-	public static void printResult(List<List<String>> result) {
-		int n = result.size();
-		for(int i = 0; i < n; i++) {
-			System.out.println (result.get(i) + "\n");
+	public static void ReportOutput(MechanicShop esql){//11
+		try{
+			esql.out.print("\tEnter format ie. text, csv or json: $");
+			ReportWriter.Format formatIn = ReportWriter.Format.valueOf(esql.in.readLine().trim().toUpperCase());
+			esql.out.print("\tEnter file, empty for the screen: $");
+			String fileIn = esql.in.readLine().trim();
+			esql.out.print("\tEnter rows per page on the screen, empty for " + ReportPager.DEFAULT_PAGE_SIZE + ": $");
+			String pageSizeIn = esql.in.readLine().trim();
+
+			esql._reportFormat = formatIn;
+			esql._reportFile = fileIn.isEmpty() ? null : fileIn;
+			esql._pageSize = pageSizeIn.isEmpty() ? ReportPager.DEFAULT_PAGE_SIZE : Math.max(1, Integer.parseInt(pageSizeIn));
+		}catch(Exception e) {
+			esql.err.println (e.getMessage ());
+		}
+	}
+
+	public static void BatchIntake(MechanicShop esql){//12
+		try{
+			esql.out.print("\tEnter kind ie. requests or closures: $");
+			BatchIntake.Kind kindIn = BatchIntake.Kind.valueOf(esql.in.readLine().trim().toUpperCase());
+			esql.out.print("\tEnter file, empty to type the rows and end with an empty line: $");
+			String fileIn = esql.in.readLine().trim();
+			esql.out.print("\tEnter rows per commit, empty for " + BatchIntake.DEFAULT_CHUNK_SIZE + ": $");
+			String chunkIn = esql.in.readLine().trim();
+			int chunkSize = chunkIn.isEmpty() ? BatchIntake.DEFAULT_CHUNK_SIZE : Integer.parseInt(chunkIn);
+
+			BatchIntake intake = new BatchIntake(esql, kindIn, chunkSize);
+			if (fileIn.isEmpty()){
+				intake.run(esql.in, true);
+			}else{
+				BufferedReader file = new BufferedReader(new FileReader(fileIn));
+				try{
+					intake.run(file, false);
+				}finally{
+					file.close();
+				}
+			}
+		}catch(Exception e) {
+			esql.err.println (e.getMessage ());
 		}
-	} 
+	}
+
+	public static void AnalyticsSummary(MechanicShop esql){//13
+		try{
+			ClosedRequestColumns columns = esql._state.closedRequests;
+			int added = columns.refresh(esql);
+			esql.out.println("\t" + columns.size() + " closed request(s) in memory, " + added + " new");
+
+			long[] totals = columns.totals(100);
+			List<String[]> rows = new ArrayList<String[]>();
+			rows.add(new String[] { "all", String.valueOf(totals[0]), String.valueOf(totals[1]),
+				String.format("%.2f", totals[1] / (double) Math.max(1, totals[0])) });
+			rows.add(new String[] { "bill < 100", String.valueOf(totals[2]), String.valueOf(totals[3]),
+				String.format("%.2f", totals[3] / (double) Math.max(1, totals[2])) });
+			printTable(esql, new String[] { "requests", "count", "total_bill", "average_bill" }, rows);
+
+			rows.clear();
+			for (Map.Entry<Integer, Long> entry : ClosedRequestColumns.top(columns.billByCustomer(), 10)){
+				List<String> customer = esql.findCustomer(entry.getKey());
+				rows.add(new String[] { String.valueOf(entry.getKey()), customer == null ? "" : customer.get(1),
+					customer == null ? "" : customer.get(2), String.valueOf(entry.getValue()) });
+			}//end for
+			printTable(esql, new String[] { "customer_id", "fname", "lname", "total_bill" }, rows);
+
+			rows.clear();
+			for (Map.Entry<Integer, Long> entry : ClosedRequestColumns.top(columns.billByMechanic(), 10)){
+				List<String> mechanic = esql.findMechanic(entry.getKey());
+				rows.add(new String[] { String.valueOf(entry.getKey()), mechanic == null ? "" : mechanic.get(1),
+					mechanic == null ? "" : mechanic.get(2), String.valueOf(entry.getValue()) });
+			}//end for
+			printTable(esql, new String[] { "mechanic_id", "fname", "lname", "total_bill" }, rows);
+
+			rows.clear();
+			for (Map.Entry<Integer, Long> entry : new java.util.TreeMap<Integer, Long>(columns.billByYear()).entrySet())
+				rows.add(new String[] { String.valueOf(entry.getKey()), String.valueOf(entry.getValue()) });
+			printTable(esql, new String[] { "year", "total_bill" }, rows);
+		}catch(Exception e) {
+			esql.err.println (e.getMessage ());
+		}
+	}
+
+	public static void AssignServiceRequest(MechanicShop esql){//14
+		try{
+			WorkScheduler scheduler = esql._state.scheduler;
+			esql.out.print("\t" + scheduler.openCount() + " open request(s), " + scheduler.unassignedCount() + " unassigned\n");
+			esql.out.print("\tEnter rid, empty for the oldest unassigned request: $");
+			String input = esql.in.readLine().trim();
+			int ridIn = input.isEmpty() ? -1 : Integer.parseInt(input);
+
+			// records the assignment unless the request was closed or assigned
+			// by another desk process; returns 0 on success, 1 when it is
+			// closed and 2 when it is already assigned
+			String sql = "WITH new_assignment AS (INSERT INTO assignment (rid, mid) SELECT ?, ? " +
+				"WHERE NOT EXISTS (SELECT 1 FROM closed_request WHERE rid = ?) ON CONFLICT (rid) DO NOTHING RETURNING rid) " +
+				"SELECT CASE WHEN EXISTS (SELECT 1 FROM new_assignment) THEN 0 " +
+				"WHEN EXISTS (SELECT 1 FROM closed_request WHERE rid = ?) THEN 1 ELSE 2 END;";
+			for(int attempt = 0; attempt < ASSIGN_ATTEMPTS; attempt++) {
+				int[] claim = scheduler.claim(ridIn);
+				if(claim == null) {
+					esql.out.print(ridIn < 0 ? "\tNo request is waiting\n" : "\tError (service_request isn't open or is already assigned)\n");
+					return;
+				}
+				int status;
+				try {
+					status = esql.executeQueryAndReturnInt(sql, claim[0], claim[1], claim[0], claim[0]);
+				}catch(SQLException e) {
+					scheduler.release(claim[0]);
+					throw e;
+				}
+				if(status == 0) {
+					List<String> mechanic = esql.findMechanic(claim[1]);
+					esql.out.print("\trid " + claim[0] + " assigned to mechanic " + claim[1] +
+						(mechanic == null ? "" : " (" + mechanic.get(1) + " " + mechanic.get(2) + ")") +
+						", now " + scheduler.load(claim[1]) + " open request(s)\n");
+					return;
+				}
+				// learn what the other desk did and try the next request
+				scheduler.release(claim[0]);
+				if(status == 1)
+					scheduler.complete(claim[0]);
+				else {
+					int mid = esql.executeQueryAndReturnInt("SELECT mid FROM assignment WHERE rid = ?;", claim[0]);
+					List<String> mechanic = mid < 0 ? null : esql.findMechanic(mid);
+					if(mechanic != null) {
+						// a mechanic another desk added
+						scheduler.addMechanic(mid, Integer.parseInt(mechanic.get(3).trim()));
+						scheduler.assign(claim[0], mid);
+					}
+				}
+				// never offered again, even if it could not be recorded
+				if(scheduler.assignedMechanic(claim[0]) < 0)
+					scheduler.complete(claim[0]);
+				if(ridIn >= 0) {
+					esql.out.print("\tError (service_request isn't open or is already assigned)\n");
+					return;
+				}
+			}
+			esql.out.print("\tOther desks assigned the oldest requests first, try again\n");
+		}catch(Exception e) {
+			esql.err.println (e.getMessage ());
+		}
+	}
+
+	/**
+	 * Method to find the customers and cars matching part of a name, phone,
+	 * address, VIN, make or model with the in-memory search indexes.
+	 */
+	public static void Search(MechanicShop esql){//15
+		try{
+			esql.out.print("\tEnter part of a name, phone, address, VIN, make or model: $");
+			String queryIn = esql.in.readLine();
+
+			List<String[]> rows = new ArrayList<String[]>();
+			for (String id : esql._state.customerSearch.search(esql, queryIn, SearchIndex.DEFAULT_LIMIT)){
+				List<String> customer = esql.findCustomer(Integer.parseInt(id));
+				if (customer == null) continue;
+				rows.add(new String[] { customer.get(0), customer.get(1).trim() + " " + customer.get(2).trim(),
+					customer.get(3).trim(), customer.get(4).trim() });
+			}//end for
+			if (!rows.isEmpty())
+				printTable(esql, new String[] { "customer_id", "name", "phone", "address" }, rows);
+
+			int customers = rows.size();
+			rows.clear();
+			for (String vin : esql._state.carSearch.search(esql, queryIn, SearchIndex.DEFAULT_LIMIT)){
+				List<String> car = esql.findCar(vin);
+				if (car == null) continue;
+				rows.add(new String[] { car.get(0), car.get(1), car.get(2), car.get(3) });
+			}//end for
+			if (!rows.isEmpty())
+				printTable(esql, new String[] { "vin", "make", "model", "year" }, rows);
+			esql.out.println("\t" + customers + " customer(s), " + rows.size() + " car(s) found");
+		}catch(Exception e) {
+			esql.err.println (e.getMessage ());
+		}
+	}
+
+	/**
+	 * Method to write a small table computed in memory to the screen in the
+	 * report format chosen with ReportOutput.
+	 */
+	private static void printTable(MechanicShop esql, String[] columns, List<String[]> rows) throws IOException {
+		int[] sizes = new int[columns.length];
+		for (String[] row : rows)
+			for (int i = 0; i < row.length; i++)
+				sizes[i] = Math.max(sizes[i], row[i].length());
+		ReportWriter report = ReportWriter.toStream(esql._reportFormat, esql.out);
+		report.header(columns, sizes);
+		for (String[] row : rows)
+			report.row(row);
+		report.close();
+	}
+
+	/**
+	 * Method to show a report on the report output chosen with ReportOutput:
+	 * page by page on the screen, or every row to the file.
+	 */
+	public static void printReport(MechanicShop esql, ReportPager pager, Object... params) throws SQLException, IOException {
+		if (esql._reportFile == null){
+			pager.browse(esql, esql._reportFormat, esql._pageSize, params);
+			return;
+		}//end if
+		ReportWriter report = ReportWriter.toFile(esql._reportFormat, esql._reportFile);
+		try{
+			pager.writeAll(esql, report, params);
+		}finally{
+			report.close();
+		}
+		esql.out.println(report.getRowCount() + " row(s) written to " + esql._reportFile);
+	}
 	
 }
 
@@ -0,0 +1,196 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class runs the query helpers and menu operations of MechanicShop
+ * without blocking the caller.  Every call returns a CompletableFuture and
+ * may be given a timeout in milliseconds (0 for none).  Cancelling the
+ * future, or letting it time out, cancels the statement in flight on the
+ * server with Statement.cancel() and makes the rest of the call fail.
+ *
+ * Built on a pool, every call runs on its own session and connection, so
+ * independent calls overlap.  Built on a single session, the calls share its
+ * connection and run one at a time.
+ *
+ */
+
+public class MechanicShopAsync{
+	//virtual threads when the JVM has them, shared by every facade of the process
+	private static final ExecutorService EXECUTOR = newExecutor();
+
+	/**
+	 * Work to run on a session.
+	 */
+	interface Call<T>{
+		T run(MechanicShop esql) throws Exception;
+	}
+
+	/**
+	 * One submitted call.  It holds the session's monitor while it runs, so
+	 * calls on a shared session never overlap.
+	 */
+	private static class Task<T> implements Runnable{
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		final MechanicShop session;
+		final boolean pooled;
+		final Call<T> call;
+		//whether call is running on session; guarded by this
+		private boolean running = false;
+
+		Task(MechanicShop session, boolean pooled, Call<T> call){
+			this.session = session;
+			this.pooled = pooled;
+			this.call = call;
+		}
+
+		public void run(){
+			synchronized (this.session){
+				// cancelled or timed out before it started
+				if (this.future.isDone()) return;
+				synchronized (this){
+					this.session.clearCancel();
+					this.running = true;
+				}
+				try{
+					this.future.complete(this.call.run(this.session));
+				}catch(Throwable e){
+					this.future.completeExceptionally(e);
+				}finally{
+					synchronized (this){
+						this.running = false;
+					}
+					if (this.pooled)
+						this.session.releaseConnection();
+				}//end try
+			}
+		}
+
+		synchronized void cancel(){
+			if (this.running)
+				this.session.cancel();
+		}
+	}
+
+	private final ConnectionPool _pool;
+	private final ShopState _state;
+	//the session every call runs on, or null to take a new one per call from _pool
+	private final MechanicShop _session;
+
+	public MechanicShopAsync(ConnectionPool pool, ShopState state){
+		this._pool = pool;
+		this._state = state;
+		this._session = null;
+	}
+
+	public MechanicShopAsync(MechanicShop session){
+		this._pool = null;
+		this._state = null;
+		this._session = session;
+	}
+
+	private static ExecutorService newExecutor(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException e){
+			return Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "mechanic-shop-async");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}//end try
+	}//end newExecutor
+
+	/**
+	 * Method to run a call on the executor.
+	 *
+	 * @param session the session to run it on
+	 * @param pooled whether the session's connection is given back afterwards
+	 * @param timeoutMillis the time after which the call is cancelled, 0 for none
+	 * @param call the work
+	 * @return the future result of the call
+	 */
+	private <T> CompletableFuture<T> submit(MechanicShop session, boolean pooled, long timeoutMillis, Call<T> call){
+		final Task<T> task = new Task<T>(session, pooled, call);
+		if (timeoutMillis > 0)
+			task.future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+		task.future.whenComplete((value, error) -> {
+			if (task.future.isCancelled() || error instanceof TimeoutException)
+				task.cancel();
+		});
+		EXECUTOR.execute(task);
+		return task.future;
+	}//end submit
+
+	private <T> CompletableFuture<T> submit(long timeoutMillis, Call<T> call){
+		if (this._session != null)
+			return submit(this._session, false, timeoutMillis, call);
+		return submit(new MechanicShop(this._pool, this._state, null, System.out), true, timeoutMillis, call);
+	}//end submit
+
+	public CompletableFuture<Integer> executeUpdate(long timeoutMillis, String sql, Object... params){
+		return submit(timeoutMillis, esql -> esql.executeUpdate(sql, params));
+	}
+
+	public CompletableFuture<Integer> executeQuery(long timeoutMillis, String query, Object... params){
+		return submit(timeoutMillis, esql -> esql.executeQuery(query, params));
+	}
+
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResult(long timeoutMillis, String query, Object... params){
+		return submit(timeoutMillis, esql -> esql.executeQueryAndReturnResult(query, params));
+	}
+
+	public CompletableFuture<Integer> executeQueryAndReturnInt(long timeoutMillis, String query, Object... params){
+		return submit(timeoutMillis, esql -> esql.executeQueryAndReturnInt(query, params));
+	}
+
+	/**
+	 * Method to stream a query's rows to the handler on the executor.  The
+	 * handler is called from the executor's thread.
+	 */
+	public CompletableFuture<Integer> executeQueryAndStream(long timeoutMillis, String query, MechanicShop.RowHandler handler, Object... params){
+		return submit(timeoutMillis, esql -> esql.executeQueryAndStream(query, handler, params));
+	}
+
+	public CompletableFuture<List<String>> findCustomer(int id){
+		return submit(0, esql -> esql.findCustomer(id));
+	}
+
+	public CompletableFuture<List<String>> findMechanic(int id){
+		return submit(0, esql -> esql.findMechanic(id));
+	}
+
+	public CompletableFuture<List<String>> findCar(String vin){
+		return submit(0, esql -> esql.findCar(vin));
+	}
+
+	/**
+	 * Method to run a menu operation on the given session, reading its form
+	 * from and writing its output to the session's terminal.
+	 *
+	 * @param session the session driving the menu
+	 * @param choice the menu choice
+	 * @param timeoutMillis the time after which the operation is cancelled, 0 for none
+	 * @return a future completed when the operation has finished
+	 */
+	public CompletableFuture<Void> runOperation(MechanicShop session, int choice, long timeoutMillis){
+		return submit(session, false, timeoutMillis, esql -> {
+			MechanicShop.runOperation(esql, choice);
+			return null;
+		});
+	}//end runOperation
+
+	/**
+	 * Method to wait until no call is running on the session any more, for
+	 * instance after its future was cancelled.
+	 */
+	public static void waitUntilIdle(MechanicShop session){
+		// a running call holds the session's monitor
+		synchronized (session){
+			return;
+		}
+	}//end waitUntilIdle
+}
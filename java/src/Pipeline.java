@@ -0,0 +1,122 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class queues several statements and sends them to the server in one
+ * network flush.  The statements are joined into one multi-statement
+ * prepared statement, which the driver sends over the extended protocol as
+ * one Parse/Bind/Execute per statement followed by a single Sync, so they
+ * all cost one round trip and run in one implicit transaction: if one fails,
+ * none of them takes effect.  The results are handed back to the Result
+ * each add() returned.
+ *
+ */
+
+public class Pipeline{
+	/**
+	 * The outcome of one queued statement, available after sync().
+	 */
+	public static class Result{
+		private volatile boolean _done = false;
+		private List<List<String>> _rows = null;
+		private int _updateCount = -1;
+
+		public boolean isDone(){
+			return this._done;
+		}
+
+		/** The rows of a query, or null for an update. */
+		public List<List<String>> getRows(){
+			return this._rows;
+		}
+
+		public int getUpdateCount(){
+			return this._updateCount;
+		}
+
+		/** The first column of the first row as an int, or -1 if there is no row. */
+		public int getInt(){
+			if (this._rows == null || this._rows.isEmpty()) return -1;
+			return Integer.parseInt(this._rows.get(0).get(0));
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final StringBuilder _sql = new StringBuilder();
+	private final List<Object> _params = new ArrayList<Object>();
+	private final List<Result> _results = new ArrayList<Result>();
+
+	Pipeline(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to queue a statement.
+	 *
+	 * @param sql the SQL string with '?' placeholders
+	 * @param params the values for the placeholders
+	 * @return the handle its result is stored in by sync()
+	 */
+	public Result add(String sql, Object... params){
+		String statement = sql.trim();
+		this._sql.append(statement);
+		if (!statement.endsWith(";"))
+			this._sql.append(';');
+		this._sql.append(' ');
+		for (Object param : params)
+			this._params.add(param);
+		Result result = new Result();
+		this._results.add(result);
+		return result;
+	}//end add
+
+	/**
+	 * Method to send every queued statement in one flush and wait for their
+	 * results.  The queue is empty afterwards.
+	 *
+	 * @throws java.sql.SQLException when one of the statements failed; none of them took effect
+	 */
+	public void sync() throws SQLException {
+		if (this._results.isEmpty()) return;
+		String sql = this._sql.toString().trim();
+		long start = System.nanoTime();
+		int rowCount = -1;
+		try{
+			// the joined text is the same on every call of an operation, so it is prepared once
+			PreparedStatement stmt = this._esql.prepare(sql);
+			MechanicShop.bind(stmt, this._params.toArray());
+			boolean isResultSet = stmt.execute();
+			int count = 0;
+			for (Result result : this._results){
+				if (isResultSet){
+					ResultSet rs = stmt.getResultSet();
+					int numCol = rs.getMetaData().getColumnCount();
+					List<List<String>> rows = new ArrayList<List<String>>();
+					while (rs.next()){
+						List<String> record = new ArrayList<String>(numCol);
+						for (int i = 1; i <= numCol; ++i)
+							record.add(rs.getString(i));
+						rows.add(record);
+					}//end while
+					rs.close();
+					result._rows = rows;
+					count += rows.size();
+				}else{
+					result._updateCount = stmt.getUpdateCount();
+					count += Math.max(0, result._updateCount);
+				}//end if
+				result._done = true;
+				isResultSet = stmt.getMoreResults();
+			}//end for
+			rowCount = count;
+		}finally{
+			this._esql.finished(sql, start, rowCount, 1);
+			this._sql.setLength(0);
+			this._params.clear();
+			this._results.clear();
+		}//end try
+	}//end sync
+}
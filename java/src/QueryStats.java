@@ -0,0 +1,266 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+
+/**
+ * This class records, for the whole process, the latency of every menu
+ * operation and of every SQL statement shape, the rows they return and the
+ * round trips each operation makes.  The latency of an operation leaves out
+ * the time spent waiting for the clerk's input, which is counted on its
+ * own.  Statements slower than the slow query
+ * threshold are logged to standard error.  The numbers are available in
+ * JMX and can be dumped periodically.
+ *
+ * Settings (system properties):
+ *   shop.slowQueryMillis  slow query threshold, default 500
+ *   shop.statsDumpSeconds period of the text dump to standard error, off by default
+ *
+ */
+
+public class QueryStats implements QueryStatsMXBean{
+	public static final QueryStats INSTANCE = new QueryStats();
+	//the literals masked by shape, compiled once since every statement goes through it
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+\\b");
+
+	/**
+	 * A latency histogram with buckets 1/16 of a power of two wide, so every
+	 * recorded value is within ~6% of its bucket.  Recording is a few
+	 * arithmetic operations and one atomic increment.
+	 */
+	static class Histogram{
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private final AtomicLongArray _counts = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final LongAdder _total = new LongAdder();
+
+		void record(long nanos){
+			this._counts.incrementAndGet(bucket(Math.max(0, nanos)));
+			this._total.increment();
+		}
+
+		private static int bucket(long value){
+			if (value < SUB_BUCKETS) return (int) value;
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+		}
+
+		private static long lowest(int bucket){
+			if (bucket < SUB_BUCKETS) return bucket;
+			int shift = bucket / SUB_BUCKETS - 1;
+			return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		}
+
+		long count(){
+			return this._total.sum();
+		}
+
+		/**
+		 * Method to return the lowest value of the bucket holding the given
+		 * percentile, in nanoseconds.
+		 */
+		long percentile(double percentile){
+			long total = count();
+			if (total == 0) return 0;
+			long rank = (long) Math.ceil(total * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < this._counts.length(); i++){
+				seen += this._counts.get(i);
+				if (seen >= Math.max(1, rank))
+					return lowest(i);
+			}//end for
+			return lowest(this._counts.length() - 1);
+		}
+	}
+
+	/**
+	 * The numbers kept for one operation or statement shape.
+	 */
+	static class Stats{
+		final Histogram latency = new Histogram();
+		final LongAdder rows = new LongAdder();
+		final LongAdder roundTrips = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		//time spent waiting for input, operations only
+		final LongAdder inputNanos = new LongAdder();
+	}
+
+	/**
+	 * The operation the current thread is running and its statement count.
+	 */
+	private static class Current{
+		final String name;
+		long roundTrips = 0;
+		long inputNanos = 0;
+		Current(String name){ this.name = name; }
+	}
+
+	private final Map<String, Stats> _operations = new ConcurrentHashMap<String, Stats>();
+	private final Map<String, Stats> _statements = new ConcurrentHashMap<String, Stats>();
+	private final ThreadLocal<Current> _current = new ThreadLocal<Current>();
+	private volatile long _slowQueryNanos = Long.getLong("shop.slowQueryMillis", 500L) * 1000000L;
+
+	private QueryStats(){
+		// starting the platform MBean server takes longer than the rest of
+		// the startup, so it is not done before the menu is shown
+		Thread register = new Thread(() -> {
+			try{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("MechanicShop:type=QueryStats"));
+			}catch(Exception e){
+				System.err.println("QueryStats not registered in JMX: " + e.getMessage());
+			}//end try
+		}, "query-stats-jmx");
+		register.setDaemon(true);
+		register.setPriority(Thread.MIN_PRIORITY);
+		register.start();
+		long dumpSeconds = Long.getLong("shop.statsDumpSeconds", 0L);
+		if (dumpSeconds > 0){
+			ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "query-stats-dump");
+				thread.setDaemon(true);
+				return thread;
+			});
+			dumper.scheduleAtFixedRate(() -> System.err.print(getReport()), dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+		}//end if
+	}
+
+	private static Stats stats(Map<String, Stats> map, String key){
+		Stats stats = map.get(key);
+		if (stats == null){
+			stats = new Stats();
+			Stats other = ((ConcurrentHashMap<String, Stats>) map).putIfAbsent(key, stats);
+			if (other != null) stats = other;
+		}//end if
+		return stats;
+	}
+
+	/**
+	 * Method to mark the start of a menu operation on the current thread.
+	 *
+	 * @param name the operation name
+	 * @return the start time to pass to endOperation
+	 */
+	public long beginOperation(String name){
+		this._current.set(new Current(name));
+		return System.nanoTime();
+	}
+
+	public void endOperation(long start){
+		Current current = this._current.get();
+		if (current == null) return;
+		this._current.remove();
+		Stats stats = stats(this._operations, current.name);
+		stats.latency.record(System.nanoTime() - start - current.inputNanos);
+		stats.roundTrips.add(current.roundTrips);
+		stats.inputNanos.add(current.inputNanos);
+	}
+
+	/**
+	 * Method to record time the operation running on the current thread
+	 * spent waiting for input; it is left out of the operation's latency.
+	 *
+	 * @param start System.nanoTime() before the read
+	 */
+	public void recordInput(long start){
+		Current current = this._current.get();
+		if (current != null)
+			current.inputNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Method to record one executed statement.
+	 *
+	 * @param sql the statement text; literals are masked for unprepared ones
+	 * @param start System.nanoTime() before the statement was sent
+	 * @param rows the rows returned or affected, or -1 if the statement failed
+	 * @param roundTrips the round trips the statement took
+	 */
+	public void recordStatement(String sql, long start, long rows, long roundTrips){
+		boolean failed = rows < 0;
+		rows = Math.max(0, rows);
+		long elapsed = System.nanoTime() - start;
+		Stats stats = stats(this._statements, sql);
+		stats.latency.record(elapsed);
+		stats.rows.add(rows);
+		stats.roundTrips.add(roundTrips);
+		Current current = this._current.get();
+		if (current != null){
+			current.roundTrips += roundTrips;
+			stats(this._operations, current.name).rows.add(rows);
+		}//end if
+		if (failed){
+			stats.errors.increment();
+			if (current != null)
+				stats(this._operations, current.name).errors.increment();
+		}//end if
+		if (elapsed >= this._slowQueryNanos)
+			System.err.println(String.format("SLOW %.1f ms, %d row(s)%s: %s%s", elapsed / 1e6, rows,
+				current == null ? "" : " in " + current.name, sql, failed ? " (failed)" : ""));
+	}//end recordStatement
+
+	/**
+	 * Method to turn an unprepared statement into its shape by masking
+	 * string and number literals, so that its executions are counted together.
+	 */
+	public static String shape(String sql){
+		return NUMBER_LITERAL.matcher(STRING_LITERAL.matcher(sql).replaceAll("?")).replaceAll("?");
+	}
+
+	public String getReport(){
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-48s %9s %6s %9s %9s %9s %9s %8s %11s%n",
+			"operation", "count", "errors", "p50 ms", "p99 ms", "max ms", "rows/op", "trips/op", "input ms/op"));
+		append(report, this._operations);
+		report.append(String.format("%-48s%n", "statement"));
+		append(report, this._statements);
+		return report.toString();
+	}
+
+	private static void append(StringBuilder report, Map<String, Stats> map){
+		for (Map.Entry<String, Stats> entry : new TreeMap<String, Stats>(map).entrySet()){
+			Stats stats = entry.getValue();
+			long count = Math.max(1, stats.latency.count());
+			String name = entry.getKey().length() > 48 ? entry.getKey().substring(0, 45) + "..." : entry.getKey();
+			report.append(String.format("%-48s %9d %6d %9.2f %9.2f %9.2f %9.1f %8.1f %11.1f%n", name,
+				stats.latency.count(), stats.errors.sum(),
+				stats.latency.percentile(50) / 1e6, stats.latency.percentile(99) / 1e6,
+				stats.latency.percentile(100) / 1e6,
+				(double) stats.rows.sum() / count, (double) stats.roundTrips.sum() / count,
+				stats.inputNanos.sum() / 1e6 / count));
+		}//end for
+	}
+
+	public String[] getOperations(){
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Stats> entry : new TreeMap<String, Stats>(this._operations).entrySet()){
+			Stats stats = entry.getValue();
+			lines.add(String.format("%s count=%d errors=%d p50=%.2fms p99=%.2fms", entry.getKey(),
+				stats.latency.count(), stats.errors.sum(),
+				stats.latency.percentile(50) / 1e6, stats.latency.percentile(99) / 1e6));
+		}//end for
+		return lines.toArray(new String[0]);
+	}
+
+	public long getSlowQueryThresholdMillis(){
+		return this._slowQueryNanos / 1000000L;
+	}
+
+	public void setSlowQueryThresholdMillis(long millis){
+		this._slowQueryNanos = millis * 1000000L;
+	}
+
+	public void reset(){
+		this._operations.clear();
+		this._statements.clear();
+	}
+}
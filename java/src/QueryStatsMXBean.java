@@ -0,0 +1,15 @@
+/**
+ * The management interface QueryStats is registered under in JMX, as
+ * MechanicShop:type=QueryStats.
+ *
+ */
+
+public interface QueryStatsMXBean{
+	/** The per-operation and per-statement table, as printed by the periodic dump. */
+	String getReport();
+	/** One line per menu operation: name, count, errors and p50/p99 latency in ms. */
+	String[] getOperations();
+	long getSlowQueryThresholdMillis();
+	void setSlowQueryThresholdMillis(long millis);
+	void reset();
+}
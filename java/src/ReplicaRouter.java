@@ -0,0 +1,183 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hands out connections to read replicas of the database for the
+ * read-only menu operations, so that long reports do not compete with the
+ * writes on the primary.  The replicas are taken in turn, each through its
+ * own connection pool.  A replica that lags the primary by more than the
+ * staleness bound, or cannot be reached, is skipped, and when no replica is
+ * left the caller stays on the primary.
+ *
+ * Configured with system properties:
+ *   shop.replicas              host:port of each replica, comma separated; none by default
+ *   shop.replicaMaxLagSeconds  staleness bound, 30 by default
+ *   shop.replicaPoolSize       connections per replica, 4 by default
+ *
+ */
+
+public class ReplicaRouter{
+	//the lag of a replica is measured again after this long
+	private static final long CHECK_EVERY_MILLIS = 1000;
+	//a replica that could not be reached is left alone for this long
+	private static final long RETRY_DOWN_MILLIS = 10 * 1000;
+	private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	//seconds since the last replayed transaction, or 0 when the replica has
+	//replayed everything it received or is not a replica at all.  A replica
+	//without a streaming WAL receiver receives nothing, so having replayed
+	//all of it says nothing and it counts as stale; the status is null for
+	//users without pg_read_all_stats, who only see that the receiver runs
+	private static final String LAG_QUERY =
+		"SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 " +
+		"WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE COALESCE(status, 'streaming') = 'streaming') THEN 'Infinity' " +
+		"WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+		"ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 'Infinity') END;";
+
+	/**
+	 * A replica, its pool and the last measurement of its lag.
+	 */
+	private static class Replica{
+		final String address;
+		final ConnectionPool pool;
+		volatile long checkedAt = 0;
+		volatile double lagSeconds = 0;
+		volatile long downUntil = 0;
+
+		Replica(String address, ConnectionPool pool){
+			this.address = address;
+			this.pool = pool;
+		}
+	}
+
+	/**
+	 * A connection borrowed from one of the replicas.
+	 */
+	public static class Lease{
+		public final ConnectionPool.Entry entry;
+		private final Replica _replica;
+
+		private Lease(Replica replica, ConnectionPool.Entry entry){
+			this._replica = replica;
+			this.entry = entry;
+		}
+
+		public void release(){
+			this._replica.pool.release(this.entry);
+		}
+	}
+
+	private final Replica[] _replicas;
+	private final double _maxLagSeconds;
+	private final AtomicInteger _next = new AtomicInteger();
+	//leases handed out, and callers left on the primary because every replica was stale or down
+	private final AtomicLong _routed = new AtomicLong();
+	private final AtomicLong _stale = new AtomicLong();
+	private final AtomicLong _down = new AtomicLong();
+
+	/**
+	 * @param primaryUrl the connection URL of the primary; the replicas use
+	 * the same database and parameters
+	 * @param addresses host:port of each replica
+	 */
+	public ReplicaRouter(String primaryUrl, String[] addresses, String user, String passwd, int poolSize, double maxLagSeconds){
+		this._replicas = new Replica[addresses.length];
+		for (int i = 0; i < addresses.length; i++){
+			String url = replicaUrl(primaryUrl, addresses[i]);
+			this._replicas[i] = new Replica(addresses[i], new ConnectionPool(url, user, passwd, poolSize, IDLE_TIMEOUT_MILLIS));
+		}//end for
+		this._maxLagSeconds = maxLagSeconds;
+	}
+
+	/**
+	 * Method to create the router configured by the shop.replicas system
+	 * properties.
+	 *
+	 * @return the router, or null when no replica is configured
+	 */
+	public static ReplicaRouter fromProperties(String primaryUrl, String user, String passwd){
+		String replicas = System.getProperty("shop.replicas", "").trim();
+		if (replicas.isEmpty()) return null;
+		int poolSize = Integer.getInteger("shop.replicaPoolSize", 4);
+		double maxLag = Double.parseDouble(System.getProperty("shop.replicaMaxLagSeconds", "30"));
+		return new ReplicaRouter(primaryUrl, replicas.split("\\s*,\\s*"), user, passwd, poolSize, maxLag);
+	}//end fromProperties
+
+	/**
+	 * Method to replace the host:port of a jdbc:postgresql://host:port/db URL.
+	 */
+	static String replicaUrl(String primaryUrl, String address){
+		int hostStart = primaryUrl.indexOf("//") + 2;
+		int hostEnd = primaryUrl.indexOf('/', hostStart);
+		return primaryUrl.substring(0, hostStart) + address + primaryUrl.substring(hostEnd);
+	}//end replicaUrl
+
+	/**
+	 * Method to borrow a connection from the next replica that is up and
+	 * within the staleness bound.
+	 *
+	 * @return the lease, or null when the caller should use the primary
+	 */
+	public Lease borrow(){
+		int first = this._next.getAndIncrement();
+		boolean stale = false;
+		for (int i = 0; i < this._replicas.length; i++){
+			Replica replica = this._replicas[Math.floorMod(first + i, this._replicas.length)];
+			long now = System.currentTimeMillis();
+			if (now < replica.downUntil) continue;
+			ConnectionPool.Entry entry = null;
+			try{
+				entry = replica.pool.borrow();
+				if (now - replica.checkedAt >= CHECK_EVERY_MILLIS){
+					replica.lagSeconds = lag(entry.connection);
+					replica.checkedAt = now;
+				}//end if
+				if (replica.lagSeconds <= this._maxLagSeconds){
+					// a safety net: the driver starts its transactions READ ONLY
+					entry.connection.setReadOnly(true);
+					this._routed.incrementAndGet();
+					return new Lease(replica, entry);
+				}//end if
+				stale = true;
+				replica.pool.release(entry);
+			}catch(SQLException e){
+				System.err.println("Replica " + replica.address + " skipped: " + e.getMessage());
+				replica.downUntil = now + RETRY_DOWN_MILLIS;
+				if (entry != null)
+					replica.pool.release(entry);
+			}//end try
+		}//end for
+		(stale ? this._stale : this._down).incrementAndGet();
+		return null;
+	}//end borrow
+
+	private static double lag(Connection connection) throws SQLException {
+		Statement stmt = connection.createStatement();
+		try{
+			ResultSet rs = stmt.executeQuery(LAG_QUERY);
+			rs.next();
+			return rs.getDouble(1);
+		}finally{
+			stmt.close();
+		}//end try
+	}//end lag
+
+	/**
+	 * Method to describe how the read-only operations were routed.
+	 */
+	public String stats(){
+		StringBuilder stats = new StringBuilder("replicas: " + this._routed.get() + " routed, " +
+			this._stale.get() + " on the primary as stale, " + this._down.get() + " as down");
+		for (Replica replica : this._replicas)
+			stats.append(String.format("\n  %s lag %.1f s", replica.address, replica.lagSeconds));
+		return stats.toString();
+	}//end stats
+
+	public void close(){
+		for (Replica replica : this._replicas)
+			replica.pool.close();
+	}//end close
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class shows a report one page at a time with keyset pagination: a
+ * page is fetched with a predicate that continues after the last key of
+ * the previous page, instead of an OFFSET, so every page is an index range
+ * scan however far the user has paged.  Only the keys where the pages
+ * start are kept, for going back; the rows themselves are streamed to the
+ * terminal and never held.
+ *
+ * The report query selects its key columns last; they are used for paging
+ * and are not shown.  It contains one %s where the key predicate goes and
+ * ends with its ORDER BY, which must match the key.
+ *
+ */
+
+public class ReportPager{
+	public static final int DEFAULT_PAGE_SIZE = 40;
+
+	private final String _first;
+	private final String _next;
+	private final String _all;
+	private final int _keys;
+	private long _maxRows = Long.MAX_VALUE;
+
+	/**
+	 * Receives the rows of one page: hides the key columns, remembers the
+	 * key of the last row and notes whether a row follows the page.
+	 */
+	private class Page implements MechanicShop.RowHandler{
+		final MechanicShop.RowHandler target;
+		final int pageSize;
+		int rows = 0;
+		boolean more = false;
+		String[] shown;
+		String[] lastKey;
+
+		Page(MechanicShop.RowHandler target, int pageSize){
+			this.target = target;
+			this.pageSize = pageSize;
+		}
+
+		public void header(String[] columns, int[] displaySizes) throws IOException {
+			int n = columns.length - ReportPager.this._keys;
+			this.shown = new String[n];
+			this.lastKey = new String[ReportPager.this._keys];
+			this.target.header(Arrays.copyOf(columns, n), Arrays.copyOf(displaySizes, n));
+		}
+
+		public void row(String[] values) throws IOException {
+			// the one row fetched past the page only tells that there is a next page
+			if (this.rows == this.pageSize){
+				this.more = true;
+				return;
+			}//end if
+			System.arraycopy(values, 0, this.shown, 0, this.shown.length);
+			System.arraycopy(values, this.shown.length, this.lastKey, 0, this.lastKey.length);
+			this.target.row(this.shown);
+			++this.rows;
+		}
+	}
+
+	/**
+	 * @param query the report query with a %s for the key predicate
+	 * @param after the key predicate, e.g. " AND wid > ?::int", with one
+	 *   placeholder per key column
+	 * @param keys the number of key columns at the end of the select list
+	 */
+	public ReportPager(String query, String after, int keys){
+		this._first = String.format(query, "") + " LIMIT ?;";
+		this._next = String.format(query, after) + " LIMIT ?;";
+		this._all = String.format(query, "") + ";";
+		this._keys = keys;
+	}
+
+	/**
+	 * Method to cap the report at its first maxRows rows, as in top-K reports.
+	 */
+	public ReportPager limit(long maxRows){
+		this._maxRows = maxRows;
+		return this;
+	}
+
+	/**
+	 * Method to stream every row of the report, without the key columns, to
+	 * the handler, e.g. for an export to a file.
+	 *
+	 * @return the number of rows written
+	 */
+	public int writeAll(MechanicShop esql, MechanicShop.RowHandler handler, Object... params) throws SQLException, IOException {
+		Page page = new Page(handler, Integer.MAX_VALUE);
+		if (this._maxRows == Long.MAX_VALUE)
+			esql.executeQueryAndStream(this._all, page, params);
+		else
+			esql.executeQueryAndStream(this._first, page, append(params, null, this._maxRows));
+		return page.rows;
+	}//end writeAll
+
+	/**
+	 * Method to show the report page by page on the session's terminal and
+	 * let the user move to the next or previous page until they quit.
+	 *
+	 * @param esql the session
+	 * @param format the format the pages are written in
+	 * @param pageSize the rows per page
+	 * @param params the values for the placeholders of the report query
+	 */
+	public void browse(MechanicShop esql, ReportWriter.Format format, int pageSize, Object... params) throws SQLException, IOException {
+		//the last key of the page before each page shown so far; null for the first page
+		List<String[]> starts = new ArrayList<String[]>();
+		starts.add(null);
+		//one writer for every page, so its buffer is allocated once
+		ReportWriter writer = ReportWriter.toStream(format, esql.out);
+		while (true){
+			int index = starts.size() - 1;
+			long before = (long) index * pageSize;
+			String[] start = starts.get(index);
+			long limit = Math.min(pageSize + 1L, this._maxRows - before);
+
+			Page page = new Page(writer, pageSize);
+			try{
+				esql.executeQueryAndStream(start == null ? this._first : this._next, page, append(params, start, limit));
+			}finally{
+				writer.finish();
+			}//end try
+			if (!page.more && index == 0) return;
+
+			String prompt = String.format("\trows %d-%d, %s%s[q]uit: $", before + 1, before + page.rows,
+				page.more ? "[n]ext, " : "", index > 0 ? "[p]revious, " : "");
+			while (true){
+				esql.out.print(prompt);
+				String answer = esql.in.readLine();
+				if (answer == null || answer.trim().toLowerCase().startsWith("q")) return;
+				if (page.more && answer.trim().toLowerCase().startsWith("n")){
+					starts.add(page.lastKey);
+					break;
+				}//end if
+				if (index > 0 && answer.trim().toLowerCase().startsWith("p")){
+					starts.remove(index);
+					break;
+				}//end if
+			}//end while
+		}//end while
+	}//end browse
+
+	private static Object[] append(Object[] params, String[] key, long limit){
+		int keys = key == null ? 0 : key.length;
+		Object[] all = Arrays.copyOf(params, params.length + keys + 1);
+		for (int i = 0; i < keys; i++)
+			all[params.length + i] = key[i];
+		all[all.length - 1] = limit;
+		return all;
+	}//end append
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class renders the rows of a streamed report as aligned text, CSV or
+ * JSON.  Everything is written into one large buffer that goes to the
+ * terminal or the file in big chunks, and the column layout is worked out
+ * once from the result set metadata.  A writer can render several reports
+ * one after the other, such as the pages of a ReportPager, so the buffer
+ * is allocated once.
+ *
+ */
+
+public class ReportWriter implements MechanicShop.RowHandler{
+	public enum Format { TEXT, CSV, JSON }
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	//widest a text column is padded to; longer values are printed in full
+	private static final int MAX_TEXT_WIDTH = 40;
+
+	private final Format _format;
+	private final Writer _out;
+	//whether closing the writer closes the underlying stream
+	private final boolean _ownsStream;
+	private String[] _columns;
+	private int[] _widths;
+	private int _rowCount = 0;
+
+	private ReportWriter(Format format, OutputStream out, boolean ownsStream){
+		this._format = format;
+		this._out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+		this._ownsStream = ownsStream;
+	}
+
+	/**
+	 * Method to create a writer for a stream that stays open afterwards,
+	 * such as the terminal.
+	 */
+	public static ReportWriter toStream(Format format, OutputStream out){
+		return new ReportWriter(format, out, false);
+	}
+
+	/**
+	 * Method to create a writer for a file, replacing its contents.
+	 *
+	 * @throws java.io.IOException when the file cannot be opened
+	 */
+	public static ReportWriter toFile(Format format, String path) throws IOException {
+		return new ReportWriter(format, new FileOutputStream(path), true);
+	}
+
+	public int getRowCount(){
+		return this._rowCount;
+	}
+
+	public void header(String[] columns, int[] displaySizes) throws IOException {
+		this._columns = columns.clone();
+		this._rowCount = 0;
+		switch (this._format){
+			case TEXT:
+				this._widths = new int[columns.length];
+				for (int i = 0; i < columns.length; i++){
+					this._widths[i] = Math.max(columns[i].length(), Math.min(displaySizes[i], MAX_TEXT_WIDTH));
+					pad(columns[i], this._widths[i], i == columns.length - 1);
+				}//end for
+				this._out.write('\n');
+				for (int i = 0; i < columns.length; i++){
+					for (int j = 0; j < this._widths[i]; j++)
+						this._out.write('-');
+					this._out.write(i == columns.length - 1 ? '\n' : ' ');
+				}//end for
+				break;
+			case CSV:
+				for (int i = 0; i < columns.length; i++){
+					if (i > 0) this._out.write(',');
+					writeCsv(columns[i]);
+				}//end for
+				this._out.write('\n');
+				break;
+			case JSON:
+				this._out.write('[');
+				break;
+		}
+	}//end header
+
+	public void row(String[] values) throws IOException {
+		switch (this._format){
+			case TEXT:
+				for (int i = 0; i < values.length; i++)
+					pad(values[i] == null ? "" : values[i], this._widths[i], i == values.length - 1);
+				this._out.write('\n');
+				break;
+			case CSV:
+				for (int i = 0; i < values.length; i++){
+					if (i > 0) this._out.write(',');
+					if (values[i] != null) writeCsv(values[i]);
+				}//end for
+				this._out.write('\n');
+				break;
+			case JSON:
+				this._out.write(this._rowCount == 0 ? "\n{" : ",\n{");
+				for (int i = 0; i < values.length; i++){
+					if (i > 0) this._out.write(',');
+					writeJson(this._columns[i]);
+					this._out.write(':');
+					if (values[i] == null) this._out.write("null");
+					else writeJson(values[i]);
+				}//end for
+				this._out.write('}');
+				break;
+		}
+		++this._rowCount;
+	}//end row
+
+	/**
+	 * Method to finish the report and flush it, keeping the writer and its
+	 * buffer for the next report.
+	 *
+	 * @throws java.io.IOException when the output cannot be written
+	 */
+	public void finish() throws IOException {
+		if (this._format == Format.JSON)
+			this._out.write(this._columns == null ? "[]\n" : "\n]\n");
+		this._out.flush();
+		this._columns = null;
+	}//end finish
+
+	/**
+	 * Method to finish the report and flush it.  The file is closed; the
+	 * terminal is left open.
+	 *
+	 * @throws java.io.IOException when the output cannot be written
+	 */
+	public void close() throws IOException {
+		finish();
+		if (this._ownsStream)
+			this._out.close();
+	}//end close
+
+	private void pad(String value, int width, boolean last) throws IOException {
+		// values are right-trimmed so CHAR padding does not blow up the layout
+		int end = value.length();
+		while (end > 0 && value.charAt(end - 1) == ' ')
+			--end;
+		this._out.write(value, 0, end);
+		if (last) return;
+		for (int i = end; i < width; i++)
+			this._out.write(' ');
+		this._out.write(' ');
+	}//end pad
+
+	private void writeCsv(String value) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++){
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}//end for
+		if (!quote){
+			this._out.write(value);
+			return;
+		}//end if
+		this._out.write('"');
+		for (int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			if (c == '"') this._out.write('"');
+			this._out.write(c);
+		}//end for
+		this._out.write('"');
+	}//end writeCsv
+
+	private void writeJson(String value) throws IOException {
+		this._out.write('"');
+		for (int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			switch (c){
+				case '"': this._out.write("\\\""); break;
+				case '\\': this._out.write("\\\\"); break;
+				case '\n': this._out.write("\\n"); break;
+				case '\r': this._out.write("\\r"); break;
+				case '\t': this._out.write("\\t"); break;
+				default:
+					if (c < 0x20)
+						this._out.write(String.format("\\u%04x", (int) c));
+					else
+						this._out.write(c);
+			}
+		}//end for
+		this._out.write('"');
+	}//end writeJson
+}
@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers partial-text searches over the rows of one table in
+ * memory.  Each row is a document with a key (its primary key) and some
+ * text fields.  The first fields are searched for any substring through an
+ * index of their trigrams, e.g. a partial phone number or name; every field
+ * is also searched by the prefixes of its words, e.g. a street or a city.
+ * Text is compared lowercase, with punctuation dropped, so "(951)555-01"
+ * finds the phone "(951)555-0123".
+ *
+ * The index is loaded from the table on first use and is then kept up to
+ * date by the Add* operations of this process, and by re-reading the rows
+ * other processes wrote, as announced on the shop_cache channel.
+ *
+ */
+
+public class SearchIndex{
+	public static final int DEFAULT_LIMIT = 10;
+	//characters are reduced to 6 bit codes, so a trigram is an 18 bit number
+	private static final int CODE_BITS = 6;
+
+	/**
+	 * A growable sorted list of document numbers.
+	 */
+	private static class Postings{
+		int[] docs = new int[4];
+		int size = 0;
+
+		void add(int doc){
+			// documents are added in increasing order, maybe several times each
+			if (this.size > 0 && this.docs[this.size - 1] == doc) return;
+			if (this.size == this.docs.length)
+				this.docs = Arrays.copyOf(this.docs, this.size * 2);
+			this.docs[this.size++] = doc;
+		}
+	}
+
+	private final String _loadQuery;
+	private final String _refreshQuery;
+	private final int _substringFields;
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	//per document: its key, and its substring fields, normalized
+	private final List<String> _keys = new ArrayList<String>();
+	private final List<String[]> _text = new ArrayList<String[]>();
+	//documents replaced by a newer version of their row, or deleted
+	private final BitSet _deleted = new BitSet();
+	private final Map<String, Integer> _docs = new HashMap<String, Integer>();
+	private final Postings[] _trigrams = new Postings[1 << (3 * CODE_BITS)];
+	private final TreeMap<String, Postings> _words = new TreeMap<String, Postings>();
+	//keys written by other processes since the last search
+	private final Set<String> _stale = ConcurrentHashMap.newKeySet();
+	private volatile boolean _loaded = false;
+
+	/**
+	 * @param loadQuery selects every row as key, then the fields
+	 * @param refreshQuery the same for the rows whose keys are in the varchar[] parameter
+	 * @param substringFields how many of the first fields are searched for substrings
+	 */
+	public SearchIndex(String loadQuery, String refreshQuery, int substringFields){
+		this._loadQuery = loadQuery;
+		this._refreshQuery = refreshQuery;
+		this._substringFields = substringFields;
+	}
+
+	/**
+	 * Method to lower-case the text, keep its letters and digits and reduce
+	 * everything else to single spaces between words.
+	 */
+	static String normalize(String text){
+		StringBuilder normalized = new StringBuilder(text.length());
+		boolean space = false;
+		for (int i = 0; i < text.length(); i++){
+			char c = Character.toLowerCase(text.charAt(i));
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')){
+				if (space && normalized.length() > 0) normalized.append(' ');
+				normalized.append(c);
+				space = false;
+			}else if (Character.isWhitespace(c)){
+				space = true;
+			}//end if
+		}//end for
+		return normalized.toString();
+	}//end normalize
+
+	private static int code(char c){
+		if (c >= 'a' && c <= 'z') return c - 'a' + 1;
+		if (c >= '0' && c <= '9') return c - '0' + 27;
+		return 0;
+	}
+
+	private static int trigram(String text, int i){
+		return (((code(text.charAt(i)) << CODE_BITS) | code(text.charAt(i + 1))) << CODE_BITS) | code(text.charAt(i + 2));
+	}
+
+	/**
+	 * Method to add or replace the document of a row.  Does nothing before
+	 * the index is loaded, since loading reads the row anyway.
+	 *
+	 * @param key the row's primary key
+	 * @param fields the row's text fields, substring fields first
+	 */
+	public void add(String key, String... fields){
+		if (!this._loaded) return;
+		this._lock.writeLock().lock();
+		try{
+			put(key, fields);
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}//end add
+
+	private void put(String key, String[] fields){
+		String[] text = new String[this._substringFields];
+		for (int f = 0; f < text.length; f++)
+			text[f] = normalize(fields[f]);
+		Integer old = this._docs.get(key);
+		if (old != null){
+			if (Arrays.equals(this._text.get(old), text) && this._substringFields == fields.length) return;
+			this._deleted.set(old);
+		}//end if
+		int doc = this._keys.size();
+		this._keys.add(key);
+		this._text.add(text);
+		this._docs.put(key, doc);
+		for (String field : text){
+			for (int i = 0; i + 3 <= field.length(); i++){
+				int trigram = trigram(field, i);
+				if (this._trigrams[trigram] == null)
+					this._trigrams[trigram] = new Postings();
+				this._trigrams[trigram].add(doc);
+			}//end for
+		}//end for
+		for (String field : fields){
+			for (String word : normalize(field).split(" ")){
+				if (word.isEmpty()) continue;
+				Postings postings = this._words.get(word);
+				if (postings == null){
+					postings = new Postings();
+					this._words.put(word, postings);
+				}//end if
+				postings.add(doc);
+			}//end for
+		}//end for
+	}//end put
+
+	private void remove(String key){
+		Integer old = this._docs.remove(key);
+		if (old != null)
+			this._deleted.set(old);
+	}//end remove
+
+	/**
+	 * Method to note that another process wrote the row with the given key.
+	 */
+	public void stale(String key){
+		if (this._loaded)
+			this._stale.add(key);
+	}
+
+	/**
+	 * Method to drop the whole index; the next search loads it again.
+	 */
+	public void invalidateAll(){
+		this._loaded = false;
+	}
+
+	/**
+	 * Method to load the index if needed and re-read the rows other
+	 * processes wrote since the last search.
+	 */
+	private void update(MechanicShop esql) throws SQLException {
+		if (this._loaded && this._stale.isEmpty()) return;
+		this._lock.writeLock().lock();
+		try{
+			if (!this._loaded){
+				this._keys.clear();
+				this._text.clear();
+				this._deleted.clear();
+				this._docs.clear();
+				Arrays.fill(this._trigrams, null);
+				this._words.clear();
+				this._stale.clear();
+				esql.executeQueryAndStream(this._loadQuery, new Loader());
+				this._loaded = true;
+			}else{
+				String[] keys = this._stale.toArray(new String[0]);
+				this._stale.removeAll(Arrays.asList(keys));
+				for (String key : keys)
+					remove(key);
+				esql.executeQueryAndStream(this._refreshQuery, new Loader(),
+					esql.connection().createArrayOf("varchar", keys));
+			}//end if
+		}catch(IOException e){
+			throw new SQLException(e.getMessage(), e);
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}//end update
+
+	/**
+	 * Adds the rows of a load or refresh query, called with the write lock held.
+	 */
+	private class Loader implements MechanicShop.RowHandler{
+		public void header(String[] columns, int[] displaySizes){}
+
+		public void row(String[] values){
+			String[] fields = new String[values.length - 1];
+			for (int i = 1; i < values.length; i++)
+				fields[i - 1] = values[i] == null ? "" : values[i];
+			put(values[0].trim(), fields);
+		}
+	}
+
+	/**
+	 * Method to find the rows matching the query, best first.  A row
+	 * matches when one of its substring fields contains the query, or when
+	 * every word of the query starts a word of the row.  Rows whose field is
+	 * the query, starts with it or has a word starting with it rank higher
+	 * than rows that merely contain it.
+	 *
+	 * @param esql the session used to load or refresh the index
+	 * @param query the text to look for
+	 * @param limit the most keys returned
+	 * @return the keys of the best matching rows
+	 * @throws java.sql.SQLException when failed to load the index
+	 */
+	public List<String> search(MechanicShop esql, String query, int limit) throws SQLException {
+		update(esql);
+		String q = normalize(query);
+		List<String> result = new ArrayList<String>();
+		if (q.isEmpty()) return result;
+		this._lock.readLock().lock();
+		try{
+			Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+			if (q.length() >= 3)
+				matchSubstrings(q, scores);
+			matchWordPrefixes(q.split(" "), scores);
+
+			// keeps the best limit documents; the oldest first among equals
+			PriorityQueue<int[]> best = new PriorityQueue<int[]>(limit + 1,
+				(a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(b[0], a[0]));
+			for (Map.Entry<Integer, Integer> entry : scores.entrySet()){
+				best.add(new int[] { entry.getKey(), entry.getValue() });
+				if (best.size() > limit) best.poll();
+			}//end for
+			while (!best.isEmpty())
+				result.add(this._keys.get(best.poll()[0]));
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+		java.util.Collections.reverse(result);
+		return result;
+	}//end search
+
+	/**
+	 * Method to score the documents whose substring fields contain q.  The
+	 * candidates are the documents having every trigram of q, intersected
+	 * from the shortest posting list up; each is then checked for q itself.
+	 */
+	private void matchSubstrings(String q, Map<Integer, Integer> scores){
+		Postings[] lists = new Postings[q.length() - 2];
+		for (int i = 0; i < lists.length; i++){
+			lists[i] = this._trigrams[trigram(q, i)];
+			if (lists[i] == null) return;
+		}//end for
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+		int[] candidates = Arrays.copyOf(lists[0].docs, lists[0].size);
+		int count = candidates.length;
+		for (int l = 1; l < lists.length && count > 0; l++)
+			count = intersect(candidates, count, lists[l]);
+		for (int c = 0; c < count; c++){
+			int doc = candidates[c];
+			if (this._deleted.get(doc)) continue;
+			int score = 0;
+			for (String field : this._text.get(doc)){
+				int at = field.indexOf(q);
+				if (at < 0) continue;
+				score = Math.max(score, field.equals(q) ? 8 : at == 0 ? 6 : field.charAt(at - 1) == ' ' ? 4 : 2);
+			}//end for
+			if (score > 0) scores.merge(doc, score, Math::max);
+		}//end for
+	}//end matchSubstrings
+
+	/**
+	 * Method to keep in docs[0, count) only the documents also in list;
+	 * both are sorted.
+	 *
+	 * @return the new count
+	 */
+	private static int intersect(int[] docs, int count, Postings list){
+		int kept = 0;
+		int j = 0;
+		for (int i = 0; i < count && j < list.size; i++){
+			while (j < list.size && list.docs[j] < docs[i])
+				++j;
+			if (j < list.size && list.docs[j] == docs[i])
+				docs[kept++] = docs[i];
+		}//end for
+		return kept;
+	}//end intersect
+
+	/**
+	 * Method to score the documents in which every query word starts a word.
+	 */
+	private void matchWordPrefixes(String[] words, Map<Integer, Integer> scores){
+		BitSet matching = null;
+		for (String word : words){
+			BitSet docs = new BitSet();
+			for (Postings postings : this._words.subMap(word, word + Character.MAX_VALUE).values())
+				for (int i = 0; i < postings.size; i++)
+					docs.set(postings.docs[i]);
+			if (matching == null) matching = docs;
+			else matching.and(docs);
+		}//end for
+		if (matching == null) return;
+		matching.andNot(this._deleted);
+		for (int doc = matching.nextSetBit(0); doc >= 0; doc = matching.nextSetBit(doc + 1))
+			scores.merge(doc, 3, Math::max);
+	}//end matchWordPrefixes
+}
@@ -0,0 +1,47 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * This class is a stand-in desk terminal for ShopServer: it forwards what is
+ * typed to the server and prints what the server sends back.
+ *
+ */
+
+public class ShopClient{
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2){
+			System.err.println("Usage: java [-classpath <classpath>] " + ShopClient.class.getName() + " <host> <port>");
+			return;
+		}//end if
+		Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+		Thread printer = new Thread(() -> {
+			try{
+				copy(socket.getInputStream(), System.out);
+			}catch(IOException e){
+				// server closed the session.
+			}//end try
+		});
+		printer.start();
+		try{
+			copy(System.in, socket.getOutputStream());
+			socket.shutdownOutput();
+			printer.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}finally{
+			socket.close();
+		}//end try
+	}//end main
+
+	private static void copy(InputStream from, OutputStream to) throws IOException {
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = from.read(buffer)) != -1){
+			to.write(buffer, 0, n);
+			to.flush();
+		}//end while
+	}//end copy
+}
@@ -0,0 +1,156 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class runs the MechanicShop menu for many service desks in one
+ * process.  Every desk that connects gets its own session running the main
+ * menu, and the sessions share a bounded pool of database connections.
+ *
+ * The desks are not authenticated, so the server only listens on the
+ * loopback interface unless -Dshop.bindAddress names another address, or
+ * 0.0.0.0 for all of them.
+ *
+ */
+
+public class ShopServer{
+	//idle pooled connections are closed after this long
+	private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	//connections waiting to be accepted, the ServerSocket default
+	private static final int BACKLOG = 50;
+
+	private final ConnectionPool _pool;
+	private final ShopState _state;
+	private final ExecutorService _sessions = newSessionExecutor();
+	private volatile ServerSocket _server = null;
+	private volatile boolean _stopped = false;
+
+	public ShopServer(ConnectionPool pool, String url, String user, String passwd) throws SQLException {
+		this._pool = pool;
+		ConnectionPool.Entry entry = pool.borrow();
+		try{
+			this._state = new ShopState(entry.connection, url, user, passwd);
+		}finally{
+			pool.release(entry);
+		}//end try
+		this._state.replicas = ReplicaRouter.fromProperties(url, user, passwd);
+	}
+
+	/**
+	 * Method to create the executor the sessions run on: one virtual thread
+	 * per session when the JVM supports them, otherwise a cached pool of
+	 * platform threads.
+	 *
+	 * @return the session executor
+	 */
+	private static ExecutorService newSessionExecutor(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException e){
+			return Executors.newCachedThreadPool();
+		}//end try
+	}//end newSessionExecutor
+
+	/**
+	 * Method to accept desks on the given port and run a session for each
+	 * until stop is called.
+	 *
+	 * @param port the TCP port to listen on
+	 * @throws java.io.IOException when the port cannot be opened
+	 */
+	public void serve(int port) throws IOException {
+		String bind = System.getProperty("shop.bindAddress");
+		InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+		this._server = new ServerSocket(port, BACKLOG, address);
+		System.out.println("Serving desks on " + address.getHostAddress() + " port " + port);
+		try{
+			while (!this._stopped){
+				Socket socket = this._server.accept();
+				this._sessions.execute(() -> runSession(socket));
+			}//end while
+		}catch(IOException e){
+			// accept fails once stop has closed the socket
+			if (!this._stopped) throw e;
+		}finally{
+			this._server.close();
+		}//end try
+	}//end serve
+
+	/**
+	 * Method to stop accepting desks and close the listening socket.  The
+	 * sessions already running are left to finish.
+	 */
+	public void stop(){
+		this._stopped = true;
+		this._sessions.shutdown();
+		this._state.close();
+		try{
+			ServerSocket server = this._server;
+			if (server != null) server.close();
+		}catch(IOException e){
+			// ignored.
+		}//end try
+	}//end stop
+
+	/**
+	 * Method to run the main menu for one connected desk.
+	 *
+	 * @param socket the desk's connection
+	 */
+	private void runSession(Socket socket){
+		try{
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			PrintStream out = new PrintStream(socket.getOutputStream(), true);
+			MechanicShop esql = new MechanicShop(this._pool, this._state, in, out);
+			try{
+				esql.runMenu();
+				out.println("Bye !");
+			}catch(Exception e){
+				out.println(e.getMessage());
+			}finally{
+				esql.cleanup();
+			}//end try
+		}catch(IOException e){
+			System.err.println(e.getMessage());
+		}finally{
+			try{
+				socket.close();
+			}catch(IOException e){
+				// ignored.
+			}//end try
+		}//end try
+	}//end runSession
+
+	/**
+	 * Server mode entry point, called by MechanicShop.main with
+	 * --serve <dbname> <port> <user> <listen port> [pool size]
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args){
+		if (args.length < 5 || args.length > 6){
+			System.err.println("Usage: java [-classpath <classpath>] " + MechanicShop.class.getName() +
+				" --serve <dbname> <port> <user> <listen port> [pool size]");
+			return;
+		}//end if
+		int poolSize = args.length == 6 ? Integer.parseInt(args[5]) : 10;
+		String url = MechanicShop.url(args[1], args[2]);
+		ConnectionPool pool = new ConnectionPool(url, args[3], "", poolSize, IDLE_TIMEOUT_MILLIS);
+		try{
+			ShopServer server = new ShopServer(pool, url, args[3], "");
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "shop-server-stop"));
+			server.serve(Integer.parseInt(args[4]));
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			pool.close();
+		}//end try
+	}//end main
+}
@@ -0,0 +1,324 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class holds what the sessions of one process share: the id
+ * allocator, the VIN filter and the caches of customer, mechanic and car
+ * rows.  The caches are kept in step with writes made by other processes
+ * through the shop_cache LISTEN/NOTIFY channel fed by the triggers of
+ * migration V004, and the work scheduler by those of migration V010.
+ *
+ */
+
+public class ShopState{
+	//channel the V004 and V010 triggers notify with "<table>:<key>"
+	public static final String CHANNEL = "shop_cache";
+	//longest the listener waits for a notification before checking for close
+	private static final int WAIT_MILLIS = 500;
+	private static final long RECONNECT_MILLIS = 5000;
+
+	final IdAllocator ids = new IdAllocator();
+	final VinGenerator vins;
+	final EntityCache<Integer> customers = new EntityCache<Integer>("customer", 100000);
+	final EntityCache<Integer> mechanics = new EntityCache<Integer>("mechanic", 10000);
+	final EntityCache<String> cars = new EntityCache<String>("car", 100000);
+	//column copy of closed_request for the analytics summary, loaded on first use
+	final ClosedRequestColumns closedRequests = new ClosedRequestColumns();
+	//open requests and mechanic loads for assigning work
+	final WorkScheduler scheduler = new WorkScheduler();
+	//partial-text search over customers and cars for the desk, loaded on first use
+	final SearchIndex customerSearch = new SearchIndex(
+		"SELECT id, fname || ' ' || lname, phone, address FROM customer;",
+		"SELECT id, fname || ' ' || lname, phone, address FROM customer WHERE id = ANY (?::varchar[]::int[]);", 2);
+	final SearchIndex carSearch = new SearchIndex(
+		"SELECT vin, vin, make || ' ' || model, year FROM car;",
+		"SELECT vin, vin, make || ' ' || model, year FROM car WHERE vin = ANY (?);", 2);
+	//replicas the reports run on, set by whoever connects the process; null for none
+	ReplicaRouter replicas = null;
+
+	private volatile boolean _closed = false;
+	private Thread _listener = null;
+	//set by the listener when the scheduler may have missed notifications
+	private boolean _workStale = false;
+
+	/**
+	 * Loads nothing, for tools such as --intake that only use the id
+	 * allocator.  The VIN filter is null and the caches start empty.
+	 */
+	ShopState(){
+		this.vins = null;
+	}
+
+	/**
+	 * Loads the VIN filter, the mechanics, which are few and all hot, and
+	 * the open service requests on the given connection.
+	 */
+	public ShopState(Connection connection) throws SQLException {
+		this(connection, null, null, null, null);
+	}
+
+	/**
+	 * Loads the state like ShopState(Connection), and keeps it in step with
+	 * the writes of other processes from a background thread.  The listener
+	 * connection is opened and LISTENs before anything is loaded, so that
+	 * no write made meanwhile goes unnoticed.
+	 *
+	 * @param url the connection URL
+	 * @param user the database user
+	 * @param passwd the password
+	 * @throws java.sql.SQLException when failed to listen or to load
+	 */
+	public ShopState(Connection connection, String url, String user, String passwd) throws SQLException {
+		this(connection, openListener(url, user, passwd), url, user, passwd);
+	}
+
+	private ShopState(Connection connection, Connection listener, String url, String user, String passwd) throws SQLException {
+		try{
+			this.vins = VinGenerator.load(connection);
+			Statement stmt = connection.createStatement();
+			try{
+				ResultSet rs = stmt.executeQuery("SELECT * FROM mechanic;");
+				ResultSetMetaData rsmd = rs.getMetaData();
+				while (rs.next()){
+					List<String> row = new ArrayList<String>(rsmd.getColumnCount());
+					for (int i = 1; i <= rsmd.getColumnCount(); i++)
+						row.add(rs.getString(i));
+					this.mechanics.put(rs.getInt(1), row);
+					this.scheduler.addMechanic(rs.getInt("id"), rs.getInt("experience"));
+				}//end while
+				rs.close();
+			}finally{
+				stmt.close();
+			}//end try
+			this.scheduler.loadOpenRequests(connection);
+		}catch(SQLException | RuntimeException e){
+			if (listener != null) listener.close();
+			throw e;
+		}//end try
+		if (listener != null)
+			listen(listener, url, user, passwd);
+	}
+
+	private static Connection openListener(String url, String user, String passwd) throws SQLException {
+		Connection connection = DriverManager.getConnection(url, user, passwd);
+		try{
+			Statement stmt = connection.createStatement();
+			stmt.execute("LISTEN " + CHANNEL);
+			stmt.close();
+		}catch(SQLException e){
+			connection.close();
+			throw e;
+		}//end try
+		return connection;
+	}//end openListener
+
+	/**
+	 * Method to start the background thread that listens for writes made by
+	 * other processes and drops the rows they touched from the caches.
+	 * While it is disconnected the caches are bypassed; once it listens
+	 * again they start empty and the work scheduler is loaded again.
+	 *
+	 * @param first the connection that already listens
+	 */
+	private void listen(final Connection first, final String url, final String user, final String passwd){
+		this._listener = new Thread(() -> {
+			Connection connection = first;
+			while (!this._closed){
+				try{
+					if (connection == null){
+						connection = openListener(url, user, passwd);
+						resume();
+					}//end if
+					listen(connection);
+				}catch(SQLException | RuntimeException e){
+					// notifications may be missed until LISTEN succeeds again
+					System.err.println("Cache listener disconnected: " + e.getMessage());
+					bypass();
+				}//end try
+				connection = null;
+				if (!this._closed)
+					sleep(RECONNECT_MILLIS);
+			}//end while
+		}, "shop-cache-listener");
+		this._listener.setDaemon(true);
+		this._listener.start();
+	}//end listen
+
+	private void listen(Connection connection) throws SQLException {
+		try{
+			PGConnection pg = connection.unwrap(PGConnection.class);
+			while (!this._closed){
+				if (this._workStale){
+					this._workStale = false;
+					loadWork(connection);
+				}//end if
+				// waits on the socket for notifications; the timeout only
+				// bounds how long close takes to be noticed
+				PGNotification[] notifications = pg.getNotifications(WAIT_MILLIS);
+				if (notifications != null){
+					for (PGNotification notification : notifications){
+						try{
+							invalidate(notification.getParameter());
+							work(connection, notification.getParameter());
+						}catch(RuntimeException e){
+							// the row it named may be stale now; start over
+							System.err.println("Bad cache notification " + notification.getParameter() + ": " + e);
+							clear();
+							this._workStale = true;
+						}//end try
+					}//end for
+				}//end if
+			}//end while
+		}finally{
+			connection.close();
+		}//end try
+	}//end listen
+
+	/**
+	 * Method to drop one row from its cache.
+	 *
+	 * @param payload "<table>:<key>" as sent by the V004 triggers, or "*"
+	 * after a bulk load to drop everything
+	 */
+	void invalidate(String payload){
+		if (payload.equals("*")){
+			clear();
+			this.ids.clear();
+			this.closedRequests.invalidate();
+			this._workStale = true;
+			return;
+		}//end if
+		int colon = payload.indexOf(':');
+		if (colon < 0) return;
+		String table = payload.substring(0, colon);
+		String key = payload.substring(colon + 1);
+		try{
+			if (table.equals("customer")){
+				this.customers.invalidate(Integer.valueOf(key));
+				this.customerSearch.stale(key);
+			}else if (table.equals("mechanic")){
+				this.mechanics.invalidate(Integer.valueOf(key));
+			}else if (table.equals("car")){
+				this.cars.invalidate(key);
+				this.carSearch.stale(key);
+			}//end if
+		}catch(NumberFormatException e){
+			// not one of ours.
+		}//end try
+	}//end invalidate
+
+	/**
+	 * Method to apply a request opened, assigned or closed, or a mechanic
+	 * added, to the work scheduler.  Those of this process were applied
+	 * already and change nothing.
+	 *
+	 * @param payload as sent by the V004 and V010 triggers
+	 */
+	private void work(Connection connection, String payload) throws SQLException {
+		String[] fields = payload.split(":");
+		try{
+			if (fields[0].equals("service_request") && fields.length == 3){
+				this.scheduler.open(Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+			}else if (fields[0].equals("assignment") && fields.length == 3){
+				this.scheduler.assign(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+			}else if (fields[0].equals("closed_request") && fields.length == 2){
+				this.scheduler.complete(Integer.parseInt(fields[1]));
+			}else if (fields[0].equals("mechanic") && fields.length == 2){
+				PreparedStatement stmt = connection.prepareStatement("SELECT experience FROM mechanic WHERE id = ?;");
+				try{
+					stmt.setInt(1, Integer.parseInt(fields[1]));
+					ResultSet rs = stmt.executeQuery();
+					if (rs.next())
+						this.scheduler.addMechanic(Integer.parseInt(fields[1]), rs.getInt(1));
+					rs.close();
+				}finally{
+					stmt.close();
+				}//end try
+			}//end if
+		}catch(NumberFormatException e){
+			// not one of ours.
+		}//end try
+	}//end work
+
+	/**
+	 * Method to load the mechanics added since and the open requests again,
+	 * after a bulk load or a lost connection.
+	 */
+	private void loadWork(Connection connection) throws SQLException {
+		Statement stmt = connection.createStatement();
+		try{
+			ResultSet rs = stmt.executeQuery("SELECT id, experience FROM mechanic;");
+			while (rs.next())
+				this.scheduler.addMechanic(rs.getInt(1), rs.getInt(2));
+			rs.close();
+		}finally{
+			stmt.close();
+		}//end try
+		this.scheduler.loadOpenRequests(connection);
+	}//end loadWork
+
+	/**
+	 * Method to stop caching rows while writes of other processes may go
+	 * unnoticed.
+	 */
+	private void bypass(){
+		this.customers.bypass();
+		this.mechanics.bypass();
+		this.cars.bypass();
+		this.customerSearch.invalidateAll();
+		this.carSearch.invalidateAll();
+		this._workStale = true;
+	}//end bypass
+
+	/**
+	 * Method to cache rows again, starting empty, once the writes of other
+	 * processes are heard again.
+	 */
+	private void resume(){
+		this.customers.resume();
+		this.mechanics.resume();
+		this.cars.resume();
+		this.customerSearch.invalidateAll();
+		this.carSearch.invalidateAll();
+	}//end resume
+
+	public void clear(){
+		this.customers.clear();
+		this.mechanics.clear();
+		this.cars.clear();
+		this.customerSearch.invalidateAll();
+		this.carSearch.invalidateAll();
+	}
+
+	/**
+	 * Method to describe the counters of every cache, one per line.
+	 */
+	public String stats(){
+		String stats = this.customers.stats() + "\n" + this.mechanics.stats() + "\n" + this.cars.stats();
+		return this.replicas == null ? stats : stats + "\n" + this.replicas.stats();
+	}
+
+	public void close(){
+		this._closed = true;
+		if (this.replicas != null)
+			this.replicas.close();
+	}
+
+	private static void sleep(long millis){
+		try{
+			Thread.sleep(millis);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}//end sleep
+}
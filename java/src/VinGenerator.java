@@ -0,0 +1,132 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class generates VINs for new cars: six uppercase letters followed by
+ * ten digits, the first of which is not 0.  A Bloom filter of the VINs
+ * already in the car table is kept in memory, so a freshly generated VIN
+ * only has to be checked against the database when the filter reports a
+ * possible hit.  The INSERT ... ON CONFLICT in AddCar stays the final guard.
+ *
+ */
+
+public class VinGenerator{
+	private static final int LETTERS = 6;
+	private static final int DIGITS = 10;
+	//bits per expected VIN and number of hash functions, ~1% false positives
+	private static final int BITS_PER_VIN = 10;
+	private static final int HASHES = 7;
+
+	//per-thread buffer the VIN is built in
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>(){
+		@Override
+		protected char[] initialValue(){
+			return new char[LETTERS + DIGITS];
+		}
+	};
+
+	private final long[] _bits;
+	private final long _numBits;
+
+	public VinGenerator(int expectedVins){
+		long numBits = Math.max(1L << 16, (long) expectedVins * BITS_PER_VIN);
+		this._bits = new long[(int) ((numBits + 63) >>> 6)];
+		this._numBits = (long) this._bits.length << 6;
+	}
+
+	/**
+	 * Method to build a generator whose filter holds every VIN in the car
+	 * table.  The VINs are read with a cursor so they are never all held in
+	 * memory at once.
+	 *
+	 * @param connection the connection to read the car table on
+	 * @return the loaded generator
+	 * @throws java.sql.SQLException when failed to read the car table
+	 */
+	public static VinGenerator load(Connection connection) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		Statement stmt = connection.createStatement();
+		try{
+			ResultSet rs = stmt.executeQuery("SELECT count(*) FROM car;");
+			rs.next();
+			// leave room for the cars registered while the program runs
+			VinGenerator generator = new VinGenerator(rs.getInt(1) * 2);
+			rs.close();
+
+			// the driver only fetches in batches inside a transaction
+			connection.setAutoCommit(false);
+			stmt.setFetchSize(10000);
+			rs = stmt.executeQuery("SELECT vin FROM car;");
+			while (rs.next()){
+				generator.add(rs.getString(1));
+			}//end while
+			rs.close();
+			connection.commit();
+			return generator;
+		}finally{
+			stmt.close();
+			connection.setAutoCommit(autoCommit);
+		}//end try
+	}//end load
+
+	/**
+	 * Method to generate a random VIN.
+	 *
+	 * @return the new VIN
+	 */
+	public String next(){
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		char[] buffer = BUFFER.get();
+		for (int i = 0; i < LETTERS; i++)
+			buffer[i] = (char) ('A' + random.nextInt(26));
+		buffer[LETTERS] = (char) ('1' + random.nextInt(9)); // cannot start with 0
+		for (int i = LETTERS + 1; i < LETTERS + DIGITS; i++)
+			buffer[i] = (char) ('0' + random.nextInt(10));
+		return new String(buffer);
+	}//end next
+
+	/**
+	 * Method to record a VIN as taken.
+	 *
+	 * @param vin the VIN
+	 */
+	public synchronized void add(String vin){
+		long h1 = hash(vin, 0x9E3779B97F4A7C15L);
+		long h2 = hash(vin, 0xC2B2AE3D27D4EB4FL) | 1;
+		for (int i = 0; i < HASHES; i++){
+			long bit = Math.floorMod(h1 + i * h2, this._numBits);
+			this._bits[(int) (bit >>> 6)] |= 1L << bit;
+		}//end for
+	}//end add
+
+	/**
+	 * Method to test whether a VIN may already be taken.  False means the VIN
+	 * is certainly free; true means the database has to be asked.
+	 *
+	 * @param vin the VIN
+	 * @return whether the VIN may be in the car table
+	 */
+	public synchronized boolean mightContain(String vin){
+		long h1 = hash(vin, 0x9E3779B97F4A7C15L);
+		long h2 = hash(vin, 0xC2B2AE3D27D4EB4FL) | 1;
+		for (int i = 0; i < HASHES; i++){
+			long bit = Math.floorMod(h1 + i * h2, this._numBits);
+			if ((this._bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}//end for
+		return true;
+	}//end mightContain
+
+	private static long hash(String vin, long seed){
+		long h = seed;
+		for (int i = 0; i < vin.length(); i++){
+			h ^= vin.charAt(i);
+			h *= 0x100000001B3L;
+			h ^= h >>> 29;
+		}//end for
+		return h ^ (h >>> 32);
+	}//end hash
+}
@@ -0,0 +1,227 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class tracks the open service requests (those without a
+ * closed_request) and how many of them each mechanic is working on, and
+ * hands out work: the oldest unassigned request goes to the mechanic with
+ * the fewest open requests, the more experienced one first on a tie.  Both
+ * are kept in ordered sets, so an assignment or a completion costs
+ * O(log n) instead of an anti-join of service_request against
+ * closed_request.
+ *
+ * The state is rebuilt from the database with one anti-join when the
+ * process starts and whenever notifications may have been missed (see
+ * ShopState).  It is then kept up to date by the desks of this process and
+ * by the notifications of migration V010 for the requests other processes
+ * open, assign and close.  Assignments are stored in the Assignment table of V006, so another
+ * process never assigns a request twice.  All methods are synchronized, so
+ * the desks of a server share one scheduler.
+ *
+ */
+
+public class WorkScheduler{
+	/**
+	 * An open service request and the mechanic it is assigned to, or -1.
+	 */
+	private static class Request{
+		final int rid;
+		final long day;
+		int mid = -1;
+
+		Request(int rid, long day){
+			this.rid = rid;
+			this.day = day;
+		}
+	}
+
+	/**
+	 * A mechanic and the number of open requests assigned to them.  The
+	 * load only changes while the mechanic is out of _mechanics.
+	 */
+	private static class Mechanic{
+		final int id;
+		final int experience;
+		int load = 0;
+
+		Mechanic(int id, int experience){
+			this.id = id;
+			this.experience = experience;
+		}
+	}
+
+	private static final Comparator<Request> OLDEST_FIRST =
+		Comparator.<Request>comparingLong(r -> r.day).thenComparingInt(r -> r.rid);
+	private static final Comparator<Mechanic> LEAST_LOADED_FIRST =
+		Comparator.<Mechanic>comparingInt(m -> m.load).thenComparingInt(m -> -m.experience).thenComparingInt(m -> m.id);
+
+	//open requests not assigned yet, oldest first
+	private final TreeSet<Request> _unassigned = new TreeSet<Request>(OLDEST_FIRST);
+	//every open request by rid, assigned or not
+	private final Map<Integer, Request> _open = new HashMap<Integer, Request>();
+	private final TreeSet<Mechanic> _mechanics = new TreeSet<Mechanic>(LEAST_LOADED_FIRST);
+	private final Map<Integer, Mechanic> _mechanicsById = new HashMap<Integer, Mechanic>();
+
+	/**
+	 * Method to load the open requests, with their assignments, with one
+	 * anti-join, replacing the ones known so far.  The mechanics must have
+	 * been added first.
+	 *
+	 * @param connection the connection to read them on
+	 * @throws java.sql.SQLException when failed to read the tables
+	 */
+	public void loadOpenRequests(Connection connection) throws SQLException {
+		// { rid, day, mid or -1 }, read before taking the lock so the desks
+		// are only held up while the sets are rebuilt
+		List<long[]> rows = new ArrayList<long[]>();
+		Statement stmt = connection.createStatement();
+		try{
+			// the open requests: those that no closed_request refers to
+			ResultSet rs = stmt.executeQuery("SELECT sr.rid, sr.date, a.mid FROM service_request sr LEFT JOIN assignment a ON a.rid = sr.rid " +
+				"WHERE NOT EXISTS (SELECT 1 FROM closed_request cr WHERE cr.rid = sr.rid);");
+			while (rs.next()){
+				int mid = rs.getInt(3);
+				rows.add(new long[] { rs.getInt(1), rs.getDate(2).toLocalDate().toEpochDay(), rs.wasNull() ? -1 : mid });
+			}//end while
+			rs.close();
+		}finally{
+			stmt.close();
+		}//end try
+		synchronized (this){
+			this._open.clear();
+			this._unassigned.clear();
+			this._mechanics.clear();
+			for (Mechanic mechanic : this._mechanicsById.values()){
+				mechanic.load = 0;
+				this._mechanics.add(mechanic);
+			}//end for
+			for (long[] row : rows){
+				open((int) row[0], row[1]);
+				if (row[2] >= 0)
+					assign((int) row[0], (int) row[2]);
+			}//end for
+		}
+	}//end loadOpenRequests
+
+	public synchronized void addMechanic(int id, int experience){
+		if (this._mechanicsById.containsKey(id)) return;
+		Mechanic mechanic = new Mechanic(id, experience);
+		this._mechanicsById.put(id, mechanic);
+		this._mechanics.add(mechanic);
+	}//end addMechanic
+
+	/**
+	 * Method to add a new open request to the queue.
+	 *
+	 * @param rid the request
+	 * @param day its date, in days since 1970-01-01
+	 */
+	public synchronized void open(int rid, long day){
+		if (this._open.containsKey(rid)) return;
+		Request request = new Request(rid, day);
+		this._open.put(rid, request);
+		this._unassigned.add(request);
+	}//end open
+
+	/**
+	 * Method to pick a request and the mechanic to do it, and mark it as
+	 * assigned to them.  The caller records the assignment in the database
+	 * and calls release if that fails.
+	 *
+	 * @param rid the request to assign, or -1 for the oldest unassigned one
+	 * @return { rid, mid }, or null if there is no such unassigned request or no mechanic
+	 */
+	public synchronized int[] claim(int rid){
+		Request request = rid < 0 ? this._unassigned.pollFirst() : this._open.get(rid);
+		if (request == null || request.mid >= 0 || this._mechanics.isEmpty()){
+			if (rid < 0 && request != null) this._unassigned.add(request);
+			return null;
+		}//end if
+		this._unassigned.remove(request);
+		Mechanic mechanic = this._mechanics.first();
+		assign(request, mechanic);
+		return new int[] { request.rid, mechanic.id };
+	}//end claim
+
+	/**
+	 * Method to record that a request is assigned to a mechanic, e.g. by
+	 * another process.
+	 */
+	public synchronized void assign(int rid, int mid){
+		Request request = this._open.get(rid);
+		Mechanic mechanic = this._mechanicsById.get(mid);
+		if (request == null || mechanic == null || request.mid >= 0) return;
+		this._unassigned.remove(request);
+		assign(request, mechanic);
+	}//end assign
+
+	private void assign(Request request, Mechanic mechanic){
+		this._mechanics.remove(mechanic);
+		++mechanic.load;
+		this._mechanics.add(mechanic);
+		request.mid = mechanic.id;
+	}//end assign
+
+	/**
+	 * Method to undo a claim whose assignment could not be recorded; the
+	 * request goes back to the queue.
+	 */
+	public synchronized void release(int rid){
+		Request request = this._open.get(rid);
+		if (request == null || request.mid < 0) return;
+		unassign(request);
+		this._unassigned.add(request);
+	}//end release
+
+	/**
+	 * Method to remove a request that was closed from the queue and from its
+	 * mechanic's load.
+	 */
+	public synchronized void complete(int rid){
+		Request request = this._open.remove(rid);
+		if (request == null) return;
+		if (request.mid >= 0)
+			unassign(request);
+		else
+			this._unassigned.remove(request);
+	}//end complete
+
+	private void unassign(Request request){
+		Mechanic mechanic = this._mechanicsById.get(request.mid);
+		this._mechanics.remove(mechanic);
+		--mechanic.load;
+		this._mechanics.add(mechanic);
+		request.mid = -1;
+	}//end unassign
+
+	/**
+	 * Method to return the mechanic an open request is assigned to.
+	 *
+	 * @return the mechanic's id, or -1 if it is not assigned or not open
+	 */
+	public synchronized int assignedMechanic(int rid){
+		Request request = this._open.get(rid);
+		return request == null ? -1 : request.mid;
+	}
+
+	public synchronized int load(int mid){
+		Mechanic mechanic = this._mechanicsById.get(mid);
+		return mechanic == null ? 0 : mechanic.load;
+	}
+
+	public synchronized int openCount(){
+		return this._open.size();
+	}
+
+	public synchronized int unassignedCount(){
+		return this._unassigned.size();
+	}
+}
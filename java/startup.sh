@@ -0,0 +1,36 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+RUNS=${4:-10}
+
+# Times the launch up to the first menu prompt, on the plain JVM, on the
+# JVM with the AppCDS archive of cds.sh and as the native executable of
+# native.sh, whichever are built.  Every run exits at the first prompt.
+# Example: source ./startup.sh flightDB 5432 user 10
+measure () {
+	NAME=$1
+	shift
+	TOTAL=0
+	BEST=
+	for i in $(seq $RUNS); do
+		MS=$("$@" < /dev/null 2>&1 > /dev/null | sed -n 's/^first prompt after \([0-9]*\) ms$/\1/p')
+		TOTAL=$((TOTAL + MS))
+		if [ -z "$BEST" ] || [ "$MS" -lt "$BEST" ]; then BEST=$MS; fi
+	done
+	echo "$NAME: mean $((TOTAL / RUNS)) ms, best $BEST ms over $RUNS runs"
+}
+
+jvm () {
+	java -Dshop.launchedAt=$(date +%s%3N) -cp lib/postgresql-42.1.4.jar:bin/ MechanicShop $DBNAME $PORT $USER
+}
+cds () {
+	java -Dshop.launchedAt=$(date +%s%3N) -XX:SharedArchiveFile=bin/shop.jsa -cp lib/postgresql-42.1.4.jar:bin/shop.jar MechanicShop $DBNAME $PORT $USER
+}
+native () {
+	bin/mechanicshop -Dshop.launchedAt=$(date +%s%3N) $DBNAME $PORT $USER
+}
+
+measure jvm jvm
+if [ -f bin/shop.jsa ]; then measure appcds cds; fi
+if [ -x bin/mechanicshop ]; then measure native native; fi
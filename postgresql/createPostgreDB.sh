@@ -9,4 +9,8 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+
+echo "Applying migrations .. "
+sleep 1
+bash ../sql/migrate.sh $USER"_DB" $PGPORT
@@ -0,0 +1,53 @@
+#! /bin/bash
+# Checks that the V003 aggregate tables match the requests they sum up, as
+# they are and after a closed request is given to another customer.  The
+# change is rolled back.  Needs migration V011.
+#
+# Example: ./check_aggregates.sh $USER"_DB" $PGPORT
+DBNAME=$1
+PORT=$2
+
+psql -h localhost -p $PORT -q -v ON_ERROR_STOP=1 $DBNAME <<'SQL' || exit 1
+BEGIN;
+
+-- the rows of either aggregate that differ from a recomputation, both ways
+CREATE TEMP VIEW Aggregate_Drift AS
+	(SELECT 'car_service_count' AS aggregate, car_vin::TEXT AS key, service_count::BIGINT AS value FROM Car_Service_Count
+	EXCEPT SELECT 'car_service_count', car_vin, COUNT(*) FROM Service_Request GROUP BY car_vin)
+	UNION ALL
+	(SELECT 'car_service_count', car_vin, COUNT(*) FROM Service_Request GROUP BY car_vin
+	EXCEPT SELECT 'car_service_count', car_vin, service_count FROM Car_Service_Count)
+	UNION ALL
+	(SELECT 'customer_total_bill', customer_id::TEXT, total_bill FROM Customer_Total_Bill
+	EXCEPT SELECT 'customer_total_bill', sr.customer_id::TEXT, SUM(cr.bill) FROM Service_Request sr, Closed_Request cr
+		WHERE sr.rid = cr.rid GROUP BY sr.customer_id)
+	UNION ALL
+	(SELECT 'customer_total_bill', sr.customer_id::TEXT, SUM(cr.bill) FROM Service_Request sr, Closed_Request cr
+		WHERE sr.rid = cr.rid GROUP BY sr.customer_id
+	EXCEPT SELECT 'customer_total_bill', customer_id::TEXT, total_bill FROM Customer_Total_Bill);
+
+DO $$
+DECLARE
+	request INTEGER;
+	customer INTEGER;
+BEGIN
+	IF EXISTS (SELECT 1 FROM Aggregate_Drift) THEN
+		RAISE EXCEPTION 'the aggregates differ from the requests';
+	END IF;
+	SELECT rid INTO request FROM Closed_Request LIMIT 1;
+	SELECT id INTO customer FROM Customer
+		WHERE id <> (SELECT customer_id FROM Service_Request WHERE rid = request) LIMIT 1;
+	IF request IS NULL OR customer IS NULL THEN
+		RAISE NOTICE 'no closed request to give to another customer, skipped';
+		RETURN;
+	END IF;
+	UPDATE Service_Request SET customer_id = customer WHERE rid = request;
+	IF EXISTS (SELECT 1 FROM Aggregate_Drift) THEN
+		RAISE EXCEPTION 'the aggregates differ after giving request % to customer %', request, customer;
+	END IF;
+END;
+$$;
+
+ROLLBACK;
+SQL
+echo "aggregates match"
@@ -4,6 +4,12 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Schema_Version CASCADE;--OK
+DROP SEQUENCE IF EXISTS customer_id_seq;--OK
+DROP SEQUENCE IF EXISTS mechanic_id_seq;--OK
+DROP SEQUENCE IF EXISTS owns_ownership_id_seq;--OK
+DROP SEQUENCE IF EXISTS service_request_rid_seq;--OK
+DROP SEQUENCE IF EXISTS closed_request_wid_seq;--OK
 
 
 -------------
@@ -21,6 +27,15 @@ CREATE DOMAIN _YEAR AS int4 CHECK(VALUE >= 1970);
 ------------
 ---TABLES---
 ------------
+-- migrations/V*.sql are applied on top of this baseline by migrate.sh
+CREATE TABLE Schema_Version
+(
+	version INTEGER NOT NULL,
+	applied TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (version)
+);
+INSERT INTO Schema_Version (version) VALUES (1);
+
 CREATE TABLE Customer
 (
 	id INTEGER NOT NULL,
@@ -83,6 +98,7 @@ CREATE TABLE Closed_Request
 	comment TEXT,
 	bill _PINTEGER NOT NULL,
 	PRIMARY KEY (wid),
+	UNIQUE (rid), --a request is closed at most once
 	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
@@ -147,4 +163,24 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+---------------
+---SEQUENCES---
+---------------
+-- Each nextval reserves a block of 20 ids; the application hands them out
+-- one by one (see IdAllocator.java), so INCREMENT BY must match its block size.
+-- MINVALUE 0 because the ids start at 0, which is also where an empty
+-- table is reseeded to below and by DataImporter.
+CREATE SEQUENCE customer_id_seq INCREMENT BY 20 MINVALUE 0;
+CREATE SEQUENCE mechanic_id_seq INCREMENT BY 20 MINVALUE 0;
+CREATE SEQUENCE owns_ownership_id_seq INCREMENT BY 20 MINVALUE 0;
+CREATE SEQUENCE service_request_rid_seq INCREMENT BY 20 MINVALUE 0;
+CREATE SEQUENCE closed_request_wid_seq INCREMENT BY 20 MINVALUE 0;
+
+-- start each sequence right after the loaded data
+SELECT setval('customer_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Customer), false);
+SELECT setval('mechanic_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Mechanic), false);
+SELECT setval('owns_ownership_id_seq', (SELECT COALESCE(MAX(ownership_id), -1) + 1 FROM Owns), false);
+SELECT setval('service_request_rid_seq', (SELECT COALESCE(MAX(rid), -1) + 1 FROM Service_Request), false);
+SELECT setval('closed_request_wid_seq', (SELECT COALESCE(MAX(wid), -1) + 1 FROM Closed_Request), false);
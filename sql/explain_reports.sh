@@ -0,0 +1,43 @@
+#! /bin/bash
+# Captures EXPLAIN ANALYZE of the menu report queries into
+# explain_<label>.txt, e.g. once before and once after ./migrate.sh:
+#
+#   ./explain_reports.sh $USER"_DB" $PGPORT before
+#   ./migrate.sh $USER"_DB" $PGPORT
+#   ./explain_reports.sh $USER"_DB" $PGPORT after
+#   diff explain_before.txt explain_after.txt
+#
+# Load a scaled dataset first, the sample data is too small for the plans
+# to differ much.
+DBNAME=$1
+PORT=$2
+LABEL=${3:-now}
+OUT=explain_$LABEL.txt
+
+# reports 9 and 10 read the V003 aggregate tables; before that migration
+# they aggregate the requests as the original menu did
+VERSION=0
+if [ "$(psql -h localhost -p $PORT $DBNAME -tAc "SELECT to_regclass('schema_version') IS NOT NULL")" = "t" ]; then
+	VERSION=$(psql -h localhost -p $PORT $DBNAME -tAc "SELECT COALESCE(MAX(version), 0) FROM Schema_Version")
+fi
+if [ "$VERSION" -ge 3 ]; then
+	REPORT_9="SELECT car.make, car.model, car_service_count.service_count AS count, car_service_count.service_count, car_service_count.car_vin FROM car_service_count, car WHERE car.vin = car_service_count.car_vin ORDER BY car_service_count.service_count DESC, car_service_count.car_vin DESC LIMIT 10;"
+	REPORT_10="SELECT id, fname, lname, customer_total_bill.total_bill AS sum, customer_total_bill.total_bill, customer_total_bill.customer_id FROM customer_total_bill, customer WHERE customer.id = customer_total_bill.customer_id ORDER BY customer_total_bill.total_bill DESC, customer_total_bill.customer_id DESC LIMIT 41;"
+else
+	REPORT_9="SELECT car.make, car.model, count(service_request) FROM car, service_request WHERE car.vin = car_vin GROUP BY car.vin ORDER BY count DESC LIMIT 10;"
+	REPORT_10="SELECT id, fname, lname, SUM(bill) FROM customer, service_request, closed_request WHERE customer.id = service_request.customer_id AND service_request.rid = closed_request.rid GROUP BY id ORDER BY SUM(bill) DESC LIMIT 41;"
+fi
+
+psql -h localhost -p $PORT $DBNAME > $OUT <<SQL
+\echo '-- 6. ListCustomersWithBillLessThan100, first page'
+EXPLAIN (ANALYZE, BUFFERS) SELECT *, wid FROM closed_request WHERE bill < 100 ORDER BY wid LIMIT 41;
+\echo '-- 7. ListCustomersWithMoreThan20Cars, first page'
+EXPLAIN (ANALYZE, BUFFERS) SELECT *, COUNT, customer.id FROM customer, (SELECT customer_id, COUNT(customer_id) FROM owns GROUP BY customer_id HAVING COUNT(customer_id) > 20 ) B WHERE customer.id = B.customer_id ORDER BY COUNT, customer.id LIMIT 41;
+\echo '-- 8. ListCarsBefore1995With50000Milles, first page'
+EXPLAIN (ANALYZE, BUFFERS) SELECT *, service_request.rid FROM car, service_request WHERE car.year < 1995 AND service_request.odometer >= 50000 AND car.vin = service_request.car_vin ORDER BY service_request.rid LIMIT 41;
+\echo '-- 9. ListKCarsWithTheMostServices (K = 10)'
+EXPLAIN (ANALYZE, BUFFERS) $REPORT_9
+\echo '-- 10. ListCustomersInDescendingOrderOfTheirTotalBill, first page'
+EXPLAIN (ANALYZE, BUFFERS) $REPORT_10
+SQL
+echo "Wrote $OUT"
@@ -0,0 +1,20 @@
+#! /bin/bash
+# Applies the migrations/V<version>__<name>.sql files that are newer than
+# the version recorded in Schema_Version, in order.
+#
+# Example: ./migrate.sh $USER"_DB" $PGPORT
+DBNAME=$1
+PORT=$2
+cd "$(dirname "$0")"
+
+# a database created before Schema_Version existed counts as version 0 and
+# is brought to version 1 by V001
+psql -h localhost -p $PORT -q $DBNAME -c "CREATE TABLE IF NOT EXISTS Schema_Version (version INTEGER NOT NULL, applied TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY (version))" || exit 1
+CURRENT=$(psql -h localhost -p $PORT $DBNAME -tAc "SELECT COALESCE(MAX(version), 0) FROM Schema_Version")
+for file in migrations/V*.sql; do
+	version=$(basename $file | sed -e 's/^V0*\([0-9]*\)__.*$/\1/')
+	if [ "$version" -gt "$CURRENT" ]; then
+		echo "Applying $file .. "
+		psql -h localhost -p $PORT -v ON_ERROR_STOP=1 $DBNAME < $file || exit 1
+	fi
+done
@@ -0,0 +1,40 @@
+-----------------------------------------------
+-- V001: what create.sql holds at version 1 and
+-- a database created before Schema_Version
+-- existed lacks; create.sql records version 1,
+-- so only such a database applies this
+-----------------------------------------------
+BEGIN;
+
+-- Each nextval reserves a block of 20 ids for IdAllocator.java; see create.sql
+CREATE SEQUENCE IF NOT EXISTS customer_id_seq;
+CREATE SEQUENCE IF NOT EXISTS mechanic_id_seq;
+CREATE SEQUENCE IF NOT EXISTS owns_ownership_id_seq;
+CREATE SEQUENCE IF NOT EXISTS service_request_rid_seq;
+CREATE SEQUENCE IF NOT EXISTS closed_request_wid_seq;
+
+ALTER SEQUENCE customer_id_seq INCREMENT BY 20 MINVALUE 0;
+ALTER SEQUENCE mechanic_id_seq INCREMENT BY 20 MINVALUE 0;
+ALTER SEQUENCE owns_ownership_id_seq INCREMENT BY 20 MINVALUE 0;
+ALTER SEQUENCE service_request_rid_seq INCREMENT BY 20 MINVALUE 0;
+ALTER SEQUENCE closed_request_wid_seq INCREMENT BY 20 MINVALUE 0;
+
+-- start each sequence right after the existing data
+SELECT setval('customer_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Customer), false);
+SELECT setval('mechanic_id_seq', (SELECT COALESCE(MAX(id), -1) + 1 FROM Mechanic), false);
+SELECT setval('owns_ownership_id_seq', (SELECT COALESCE(MAX(ownership_id), -1) + 1 FROM Owns), false);
+SELECT setval('service_request_rid_seq', (SELECT COALESCE(MAX(rid), -1) + 1 FROM Service_Request), false);
+SELECT setval('closed_request_wid_seq', (SELECT COALESCE(MAX(wid), -1) + 1 FROM Closed_Request), false);
+
+-- a request is closed at most once; fails if it already was more than once
+DO $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'closed_request_rid_key') THEN
+		ALTER TABLE Closed_Request ADD CONSTRAINT closed_request_rid_key UNIQUE (rid);
+	END IF;
+END;
+$$;
+
+INSERT INTO Schema_Version (version) VALUES (1);
+
+COMMIT;
@@ -0,0 +1,44 @@
+-----------------------------------------
+-- V002: indexes for the menu reports and
+-- VARCHAR instead of blank-padded CHAR
+-----------------------------------------
+BEGIN;
+
+-- CHAR(n) pads every value with blanks up to n; VARCHAR stores only the text
+ALTER TABLE Customer
+	ALTER COLUMN fname TYPE VARCHAR(32) USING rtrim(fname),
+	ALTER COLUMN lname TYPE VARCHAR(32) USING rtrim(lname),
+	ALTER COLUMN phone TYPE VARCHAR(13) USING rtrim(phone),
+	ALTER COLUMN address TYPE VARCHAR(256) USING rtrim(address);
+
+ALTER TABLE Mechanic
+	ALTER COLUMN fname TYPE VARCHAR(32) USING rtrim(fname),
+	ALTER COLUMN lname TYPE VARCHAR(32) USING rtrim(lname);
+
+-- 6. ListCustomersWithBillLessThan100: range scan on bill
+CREATE INDEX closed_request_bill_idx ON Closed_Request (bill);
+
+-- 7. ListCustomersWithMoreThan20Cars: index-only count per customer
+CREATE INDEX owns_customer_id_idx ON Owns (customer_id);
+
+-- 8. ListCarsBefore1995With50000Milles: old cars, then their requests by vin
+CREATE INDEX car_year_idx ON Car (year);
+
+-- 8, 9. ListKCarsWithTheMostServices: requests per car
+CREATE INDEX service_request_car_vin_idx ON Service_Request (car_vin);
+
+-- 10. ListCustomersInDescendingOrderOfTheirTotalBill: customer -> requests
+-- -> bills, each step answered from the index alone
+CREATE INDEX service_request_customer_id_rid_idx ON Service_Request (customer_id, rid);
+CREATE INDEX closed_request_rid_bill_idx ON Closed_Request (rid, bill);
+
+INSERT INTO Schema_Version (version) VALUES (2);
+
+COMMIT;
+
+ANALYZE Customer;
+ANALYZE Mechanic;
+ANALYZE Car;
+ANALYZE Owns;
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
@@ -0,0 +1,92 @@
+-----------------------------------------------
+-- V003: aggregates behind reports 9 and 10,
+-- kept up to date by triggers on every write
+-----------------------------------------------
+BEGIN;
+
+-- 9. ListKCarsWithTheMostServices reads the top K rows of this index
+CREATE TABLE Car_Service_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	service_count INTEGER NOT NULL,
+	PRIMARY KEY (car_vin),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+CREATE INDEX car_service_count_count_idx ON Car_Service_Count (service_count DESC);
+
+-- 10. ListCustomersInDescendingOrderOfTheirTotalBill reads this index in order
+CREATE TABLE Customer_Total_Bill
+(
+	customer_id INTEGER NOT NULL,
+	total_bill BIGINT NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+CREATE INDEX customer_total_bill_total_idx ON Customer_Total_Bill (total_bill DESC);
+
+-- adds delta services to a car; a car without services has no row
+CREATE FUNCTION add_car_service_count(vin VARCHAR, delta INTEGER) RETURNS VOID AS $$
+BEGIN
+	INSERT INTO Car_Service_Count AS c VALUES (vin, delta)
+		ON CONFLICT (car_vin) DO UPDATE SET service_count = c.service_count + delta;
+	DELETE FROM Car_Service_Count WHERE car_vin = vin AND service_count <= 0;
+END;
+$$ LANGUAGE plpgsql;
+
+-- adds delta to the total bill of the customer of request rid; a customer
+-- without closed requests has no row
+CREATE FUNCTION add_customer_total_bill(request INTEGER, delta BIGINT) RETURNS VOID AS $$
+DECLARE
+	customer INTEGER;
+BEGIN
+	SELECT customer_id INTO customer FROM Service_Request WHERE rid = request;
+	INSERT INTO Customer_Total_Bill AS t VALUES (customer, delta)
+		ON CONFLICT (customer_id) DO UPDATE SET total_bill = t.total_bill + delta;
+	DELETE FROM Customer_Total_Bill WHERE customer_id = customer AND total_bill <= 0;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION service_request_count() RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM add_car_service_count(OLD.car_vin, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM add_car_service_count(NEW.car_vin, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION closed_request_total() RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM add_customer_total_bill(OLD.rid, -OLD.bill);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM add_customer_total_bill(NEW.rid, NEW.bill);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER service_request_count AFTER INSERT OR DELETE OR UPDATE OF car_vin ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE service_request_count();
+
+CREATE TRIGGER closed_request_total AFTER INSERT OR DELETE OR UPDATE OF rid, bill ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE closed_request_total();
+
+-- the rows already loaded
+INSERT INTO Car_Service_Count
+	SELECT car_vin, COUNT(*) FROM Service_Request GROUP BY car_vin;
+
+INSERT INTO Customer_Total_Bill
+	SELECT service_request.customer_id, SUM(bill) FROM Service_Request, Closed_Request
+	WHERE service_request.rid = closed_request.rid GROUP BY service_request.customer_id;
+
+INSERT INTO Schema_Version (version) VALUES (3);
+
+COMMIT;
+
+ANALYZE Car_Service_Count;
+ANALYZE Customer_Total_Bill;
@@ -0,0 +1,36 @@
+--------------------------------------------------
+-- V004: tell the MechanicShop processes which
+-- customer, mechanic and car rows were written,
+-- so they can drop them from their caches
+--------------------------------------------------
+BEGIN;
+
+-- TG_ARGV[0] is the primary key column of the table.  Bulk loads set
+-- shop.skip_cache_notify and send a single '*' when they are done.
+CREATE FUNCTION notify_shop_cache() RETURNS TRIGGER AS $$
+BEGIN
+	IF current_setting('shop.skip_cache_notify', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM pg_notify('shop_cache', lower(TG_TABLE_NAME) || ':' || (row_to_json(OLD) ->> TG_ARGV[0]));
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM pg_notify('shop_cache', lower(TG_TABLE_NAME) || ':' || (row_to_json(NEW) ->> TG_ARGV[0]));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER customer_notify_shop_cache AFTER INSERT OR UPDATE OR DELETE ON Customer
+	FOR EACH ROW EXECUTE PROCEDURE notify_shop_cache('id');
+
+CREATE TRIGGER mechanic_notify_shop_cache AFTER INSERT OR UPDATE OR DELETE ON Mechanic
+	FOR EACH ROW EXECUTE PROCEDURE notify_shop_cache('id');
+
+CREATE TRIGGER car_notify_shop_cache AFTER INSERT OR UPDATE OR DELETE ON Car
+	FOR EACH ROW EXECUTE PROCEDURE notify_shop_cache('vin');
+
+INSERT INTO Schema_Version (version) VALUES (4);
+
+COMMIT;
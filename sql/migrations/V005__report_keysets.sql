@@ -0,0 +1,27 @@
+-----------------------------------------------
+-- V005: indexes in the order the reports are
+-- paged through, so that every page is an
+-- index range scan that starts at the previous
+-- page's last key (keyset pagination)
+-----------------------------------------------
+BEGIN;
+
+-- 6. ListCustomersWithBillLessThan100 pages by wid
+CREATE INDEX closed_request_bill_under_100_wid_idx ON Closed_Request (wid) WHERE bill < 100;
+
+-- 8. ListCarsBefore1995With50000Milles pages by rid, joining each request to its car
+CREATE INDEX service_request_odometer_50000_rid_idx ON Service_Request (rid) WHERE odometer >= 50000;
+
+-- 9, 10. the counts and totals are not unique, so the pages are ordered by
+-- the primary key as well; these replace the indexes of V003
+DROP INDEX car_service_count_count_idx;
+CREATE INDEX car_service_count_count_vin_idx ON Car_Service_Count (service_count, car_vin);
+DROP INDEX customer_total_bill_total_idx;
+CREATE INDEX customer_total_bill_total_id_idx ON Customer_Total_Bill (total_bill, customer_id);
+
+-- 7. ListCustomersWithMoreThan20Cars still counts owns per customer on
+-- owns_customer_id_idx for every page; its result is small
+
+INSERT INTO Schema_Version (version) VALUES (5);
+
+COMMIT;
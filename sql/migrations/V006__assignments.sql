@@ -0,0 +1,20 @@
+-----------------------------------------------
+-- V006: the mechanic each open service request
+-- is assigned to by the work scheduler
+-----------------------------------------------
+BEGIN;
+
+-- a request is assigned once; the row stays after it is closed
+CREATE TABLE Assignment
+(
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	assigned TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (rid),
+	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+);
+
+INSERT INTO Schema_Version (version) VALUES (6);
+
+COMMIT;
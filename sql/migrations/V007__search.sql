@@ -0,0 +1,21 @@
+-----------------------------------------------
+-- V007: indexes for searching customers by
+-- partial name, phone or address and cars by
+-- partial make, model or VIN
+-----------------------------------------------
+BEGIN;
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- LIKE '%...%' and similarity() on names, phones, makes, models and VINs
+CREATE INDEX customer_name_trgm_idx ON Customer USING gin ((fname || ' ' || lname) gin_trgm_ops);
+CREATE INDEX customer_phone_trgm_idx ON Customer USING gin (phone gin_trgm_ops);
+CREATE INDEX car_make_model_trgm_idx ON Car USING gin ((make || ' ' || model) gin_trgm_ops);
+CREATE INDEX car_vin_trgm_idx ON Car USING gin (vin gin_trgm_ops);
+
+-- words of the address, e.g. to_tsvector('simple', address) @@ to_tsquery('simple', 'riverside:*')
+CREATE INDEX customer_address_fts_idx ON Customer USING gin (to_tsvector('simple', address));
+
+INSERT INTO Schema_Version (version) VALUES (7);
+
+COMMIT;
@@ -0,0 +1,63 @@
+--------------------------------------------------
+-- V008: an ordered feed of the rows written to
+-- the shop tables, for downstream systems; see
+-- ChangePublisher.java
+--------------------------------------------------
+BEGIN;
+
+-- written by the triggers below in the transaction of the change itself,
+-- so a change is in the feed exactly when it commits
+CREATE TABLE Change_Outbox
+(
+	seq BIGSERIAL NOT NULL,
+	table_name VARCHAR(32) NOT NULL,
+	op VARCHAR(6) NOT NULL,
+	changed TIMESTAMP NOT NULL DEFAULT now(),
+	row_data JSON NOT NULL,
+	PRIMARY KEY (seq)
+);
+
+-- the last seq each consumer has published
+CREATE TABLE Change_Offset
+(
+	consumer VARCHAR(64) NOT NULL,
+	seq BIGINT NOT NULL,
+	PRIMARY KEY (consumer)
+);
+
+-- Bulk loads set shop.skip_change_feed; the feed starts after the initial
+-- load.  The notification only wakes the publishers up, so its payload is
+-- empty and Postgres sends it once per transaction.
+CREATE FUNCTION record_change() RETURNS TRIGGER AS $$
+BEGIN
+	IF current_setting('shop.skip_change_feed', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	INSERT INTO Change_Outbox (table_name, op, row_data)
+		VALUES (lower(TG_TABLE_NAME), TG_OP, row_to_json(CASE WHEN TG_OP = 'DELETE' THEN OLD ELSE NEW END));
+	PERFORM pg_notify('shop_changes', '');
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER customer_record_change AFTER INSERT OR UPDATE OR DELETE ON Customer
+	FOR EACH ROW EXECUTE PROCEDURE record_change();
+
+CREATE TRIGGER mechanic_record_change AFTER INSERT OR UPDATE OR DELETE ON Mechanic
+	FOR EACH ROW EXECUTE PROCEDURE record_change();
+
+CREATE TRIGGER car_record_change AFTER INSERT OR UPDATE OR DELETE ON Car
+	FOR EACH ROW EXECUTE PROCEDURE record_change();
+
+CREATE TRIGGER owns_record_change AFTER INSERT OR UPDATE OR DELETE ON Owns
+	FOR EACH ROW EXECUTE PROCEDURE record_change();
+
+CREATE TRIGGER service_request_record_change AFTER INSERT OR UPDATE OR DELETE ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE record_change();
+
+CREATE TRIGGER closed_request_record_change AFTER INSERT OR UPDATE OR DELETE ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE record_change();
+
+INSERT INTO Schema_Version (version) VALUES (8);
+
+COMMIT;
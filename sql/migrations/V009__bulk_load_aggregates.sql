@@ -0,0 +1,42 @@
+-----------------------------------------------
+-- V009: let bulk loads skip the V003 aggregate
+-- triggers and rebuild the aggregates once
+-----------------------------------------------
+BEGIN;
+
+-- Bulk loads set shop.skip_aggregates and rebuild Car_Service_Count and
+-- Customer_Total_Bill with one INSERT ... SELECT each when they are done,
+-- instead of one upsert per loaded row.
+CREATE OR REPLACE FUNCTION service_request_count() RETURNS TRIGGER AS $$
+BEGIN
+	IF current_setting('shop.skip_aggregates', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM add_car_service_count(OLD.car_vin, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM add_car_service_count(NEW.car_vin, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION closed_request_total() RETURNS TRIGGER AS $$
+BEGIN
+	IF current_setting('shop.skip_aggregates', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM add_customer_total_bill(OLD.rid, -OLD.bill);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM add_customer_total_bill(NEW.rid, NEW.bill);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+INSERT INTO Schema_Version (version) VALUES (9);
+
+COMMIT;
@@ -0,0 +1,41 @@
+-----------------------------------------------
+-- V010: tell the MechanicShop processes which
+-- requests were opened, assigned and closed, so
+-- their work schedulers stay in step
+-----------------------------------------------
+BEGIN;
+
+-- Sent on the shop_cache channel of V004 as
+--   service_request:<rid>:<days since 1970-01-01>
+--   assignment:<rid>:<mid>
+--   closed_request:<rid>
+-- Bulk loads set shop.skip_cache_notify and send a single '*' when they
+-- are done, after which the schedulers load the open requests again.
+CREATE FUNCTION notify_shop_work() RETURNS TRIGGER AS $$
+BEGIN
+	IF current_setting('shop.skip_cache_notify', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_TABLE_NAME = 'service_request' THEN
+		PERFORM pg_notify('shop_cache', 'service_request:' || NEW.rid || ':' || (NEW.date - DATE '1970-01-01'));
+	ELSIF TG_TABLE_NAME = 'assignment' THEN
+		PERFORM pg_notify('shop_cache', 'assignment:' || NEW.rid || ':' || NEW.mid);
+	ELSE
+		PERFORM pg_notify('shop_cache', 'closed_request:' || NEW.rid);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER service_request_notify_shop_work AFTER INSERT ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE notify_shop_work();
+
+CREATE TRIGGER assignment_notify_shop_work AFTER INSERT ON Assignment
+	FOR EACH ROW EXECUTE PROCEDURE notify_shop_work();
+
+CREATE TRIGGER closed_request_notify_shop_work AFTER INSERT ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE notify_shop_work();
+
+INSERT INTO Schema_Version (version) VALUES (10);
+
+COMMIT;
@@ -0,0 +1,40 @@
+-----------------------------------------------
+-- V011: move the closed bills of a request in
+-- Customer_Total_Bill when the request is given
+-- to another customer
+-----------------------------------------------
+BEGIN;
+
+-- adds delta to the total bill of a customer; a customer without closed
+-- requests has no row
+CREATE FUNCTION add_customer_bill(customer INTEGER, delta BIGINT) RETURNS VOID AS $$
+BEGIN
+	INSERT INTO Customer_Total_Bill AS t VALUES (customer, delta)
+		ON CONFLICT (customer_id) DO UPDATE SET total_bill = t.total_bill + delta;
+	DELETE FROM Customer_Total_Bill WHERE customer_id = customer AND total_bill <= 0;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION service_request_customer() RETURNS TRIGGER AS $$
+DECLARE
+	bills BIGINT;
+BEGIN
+	IF current_setting('shop.skip_aggregates', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	SELECT SUM(bill) INTO bills FROM Closed_Request WHERE rid = NEW.rid;
+	IF bills IS NOT NULL THEN
+		PERFORM add_customer_bill(OLD.customer_id, -bills);
+		PERFORM add_customer_bill(NEW.customer_id, bills);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER service_request_customer AFTER UPDATE OF customer_id ON Service_Request
+	FOR EACH ROW WHEN (OLD.customer_id IS DISTINCT FROM NEW.customer_id)
+	EXECUTE PROCEDURE service_request_customer();
+
+INSERT INTO Schema_Version (version) VALUES (11);
+
+COMMIT;